@@ -98,11 +98,22 @@ public abstract class DataFrameWidget extends InteractiveWidget implements
 		_needsUpdating = false;
 	}
 
+	/**
+	 * Refreshes - recording the refresh as a flight recorder event.
+	 */
+	protected final void performRefresh() {
+		Object event = WidgetFlightRecorder.getInstance().beginRefresh();
+
+		refresh();
+
+		WidgetFlightRecorder.getInstance().commitRefresh(event, this);
+	}
+
 	@Override
 	public void update() {
 		Frame parent = getParentFrame();
 		if (parent != null && parent == DisplayIO.getCurrentFrame()) {
-			refresh();
+			performRefresh();
 		}
 
 		_needsUpdating = true;
@@ -122,9 +133,9 @@ public abstract class DataFrameWidget extends InteractiveWidget implements
 			_needsUpdating = true;
 			// Need to refresh imediately so that the data appears when adding a
 			// link to a graph
-			refresh();
+			performRefresh();
 		} else {
-			refresh();
+			performRefresh();
 		}
 	}
 
@@ -138,7 +149,7 @@ public abstract class DataFrameWidget extends InteractiveWidget implements
 		case ItemParentStateChangedEvent.EVENT_TYPE_SHOWN:
 		case ItemParentStateChangedEvent.EVENT_TYPE_SHOWN_VIA_OVERLAY:
 			if (needsRefresh()) {
-				refresh();
+				performRefresh();
 			}
 			break;
 
@@ -0,0 +1,387 @@
+package org.expeditee.items.widgets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Watches the swing thread for stalls - and blames the widgets causing them.
+ *
+ * Probe events are posted to the swing thread a few times a second. If a probe is not run
+ * within the threshold ({@value #THRESHOLD_PROPERTY}, default 200ms) the swing thread is stalled:
+ * its stack is sampled until the probe runs. Each sample is attributed to the top most frame
+ * in a widget class (or a class nested in one) - so slow code in a widgets constructor, refresh,
+ * layout or paint is blamed on that widget and method, even when the time is spent deeper in
+ * library code. Stalls with no widget on the stack are counted as unattributed.
+ *
+ * The watchdog runs while there are listeners. Statistics are kept across runs.
+ */
+public final class EDTWatchdog {
+
+	public static final String THRESHOLD_PROPERTY = "expeditee.widgets.edtwatchdog.threshold";
+
+	/** Milliseconds that the swing thread must be unresponsive for before it is stalled. */
+	static final long THRESHOLD_MS = Math.max(10, Long.getLong(THRESHOLD_PROPERTY, 200));
+
+	/** Milliseconds between probes. */
+	private static final long PROBE_INTERVAL_MS = 100;
+
+	/** Milliseconds between stack samples while stalled. */
+	private static final long SAMPLE_INTERVAL_MS = 20;
+
+	/** The name stalls without a widget on the stack are recorded under. */
+	public static final String UNATTRIBUTED = "(no widget)";
+
+	private static EDTWatchdog _instance = null;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final AtomicBoolean isNotifyPending = new AtomicBoolean(false);
+
+	private final Runnable notifier = new ListenerNotifier();
+
+	private WatchdogThread watchdogThread = null; // guarded by this
+
+	// Written by the probe on the swing thread, read by the watchdog
+	private volatile Thread swingThread = null;
+	private volatile long probeRunTime = 0;
+
+	/** Class name to the widget class it is, or is nested in. Null values for non-widget classes. Watchdog thread only. */
+	private final Map<String, Class<?>> widgetClasses = new HashMap<String, Class<?>>();
+
+	// The following are guarded by stats
+	private final Map<String, StallStatistics> stats = new HashMap<String, StallStatistics>();
+	private long stallCount = 0;
+	private long lastLatency = 0;
+	private long maxLatency = 0;
+
+	private EDTWatchdog() {
+	}
+
+	public static synchronized EDTWatchdog getInstance() {
+		if (_instance == null) _instance = new EDTWatchdog();
+		return _instance;
+	}
+
+	/**
+	 * Notified on the swing thread after each stall, and now and then with the latest latency.
+	 */
+	public interface Listener {
+		void watched(EDTWatchdog watchdog);
+	}
+
+	/**
+	 * Starts watching if not already.
+	 */
+	public synchronized void addListener(Listener listener) {
+		if (listener == null) throw new NullPointerException("listener");
+		if (listeners.contains(listener)) return;
+		listeners.add(listener);
+
+		if (watchdogThread == null) {
+			watchdogThread = new WatchdogThread();
+			watchdogThread.start();
+		}
+	}
+
+	/**
+	 * Stops watching once the last listener is removed.
+	 */
+	public synchronized void removeListener(Listener listener) {
+		listeners.remove(listener);
+
+		if (listeners.isEmpty() && watchdogThread != null) {
+			watchdogThread.interrupt();
+			watchdogThread = null;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The amount of stalls seen.
+	 */
+	public long getStallCount() {
+		synchronized(stats) {
+			return stallCount;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The milliseconds the last probe waited to run.
+	 */
+	public long getLastLatency() {
+		synchronized(stats) {
+			return lastLatency;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The most milliseconds a probe has waited to run.
+	 */
+	public long getMaxLatency() {
+		synchronized(stats) {
+			return maxLatency;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The statistics per widget class and method blamed - the longest total stall first. Never null.
+	 */
+	public List<StallStatistics> getStallStatistics() {
+		List<StallStatistics> copy = new ArrayList<StallStatistics>();
+		synchronized(stats) {
+			for (StallStatistics s : stats.values()) copy.add(new StallStatistics(s));
+		}
+
+		Collections.sort(copy, new Comparator<StallStatistics>() {
+			@Override
+			public int compare(StallStatistics a, StallStatistics b) {
+				return Long.compare(b.getTotalTime(), a.getTotalTime());
+			}
+		});
+		return copy;
+	}
+
+	/**
+	 * Clears all statistics.
+	 */
+	public void reset() {
+		synchronized(stats) {
+			stats.clear();
+			stallCount = 0;
+			maxLatency = 0;
+		}
+	}
+
+	/**
+	 * Watchdog thread only.
+	 *
+	 * @return
+	 * 		The widget class and method that the stack is in - e.g. "Browser.paint". Null if no widget
+	 * 		is on the stack.
+	 */
+	private String attribute(StackTraceElement[] stack) {
+		for (StackTraceElement frame : stack) {
+			Class<?> widgetClass = getWidgetClass(frame.getClassName());
+			if (widgetClass != null) return widgetClass.getSimpleName() + "." + frame.getMethodName();
+		}
+		return null;
+	}
+
+	/**
+	 * @return
+	 * 		The widget subclass that the named class is, or is nested in. Null if not a widget subclass.
+	 */
+	private Class<?> getWidgetClass(String className) {
+		if (widgetClasses.containsKey(className)) return widgetClasses.get(className);
+
+		Class<?> widgetClass = null;
+
+		// Inner and anonymous classes are blamed on the widget declaring them
+		String outerName = className;
+		int nested = outerName.indexOf('$');
+		if (nested > 0) outerName = outerName.substring(0, nested);
+
+		try {
+			Class<?> c = Class.forName(outerName, false, InteractiveWidget.class.getClassLoader());
+			if (InteractiveWidget.class.isAssignableFrom(c)
+					&& c != InteractiveWidget.class
+					&& c != HeavyDutyInteractiveWidget.class) {
+				widgetClass = c;
+			}
+		} catch (Throwable e) { // Not visible from here: not a widget
+		}
+
+		widgetClasses.put(className, widgetClass);
+		return widgetClass;
+	}
+
+	/**
+	 * Watchdog thread only.
+	 *
+	 * @param samples
+	 * 		The methods blamed by each stack sample. Null elements for samples with no widget.
+	 */
+	private void stallEnded(long duration, List<String> samples) {
+
+		// Blame the method sampled the most
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		String blamed = UNATTRIBUTED;
+		int blamedCount = 0;
+		for (String sample : samples) {
+			String key = (sample == null) ? UNATTRIBUTED : sample;
+			Integer count = counts.get(key);
+			count = (count == null) ? 1 : count + 1;
+			counts.put(key, count);
+			if (count > blamedCount) {
+				blamedCount = count;
+				blamed = key;
+			}
+		}
+
+		synchronized(stats) {
+			stallCount++;
+			StallStatistics s = stats.get(blamed);
+			if (s == null) {
+				s = new StallStatistics(blamed);
+				stats.put(blamed, s);
+			}
+			s.stallCount++;
+			s.totalTime += duration;
+			s.maxTime = Math.max(s.maxTime, duration);
+		}
+
+		notifyListeners();
+	}
+
+	private void probed(long latency) {
+		synchronized(stats) {
+			lastLatency = latency;
+			maxLatency = Math.max(maxLatency, latency);
+		}
+	}
+
+	private void notifyListeners() {
+		if (isNotifyPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(notifier);
+		}
+	}
+
+	/**
+	 * The stalls blamed on a widget class and method.
+	 */
+	public static final class StallStatistics {
+
+		private final String blamed;
+		private long stallCount = 0;
+		private long totalTime = 0;
+		private long maxTime = 0;
+
+		private StallStatistics(String blamed) {
+			this.blamed = blamed;
+		}
+
+		private StallStatistics(StallStatistics other) {
+			this.blamed = other.blamed;
+			this.stallCount = other.stallCount;
+			this.totalTime = other.totalTime;
+			this.maxTime = other.maxTime;
+		}
+
+		/** @return The widget class and method - e.g. "Browser.paint". Or {@link EDTWatchdog#UNATTRIBUTED}. */
+		public String getBlamed() {
+			return blamed;
+		}
+
+		/** @return The simple name of the widget class blamed. Null if unattributed. */
+		public String getWidgetClass() {
+			int dot = blamed.lastIndexOf('.');
+			return (UNATTRIBUTED.equals(blamed) || dot < 0) ? null : blamed.substring(0, dot);
+		}
+
+		public long getStallCount() {
+			return stallCount;
+		}
+
+		/** @return The milliseconds of all stalls. */
+		public long getTotalTime() {
+			return totalTime;
+		}
+
+		/** @return The milliseconds of the longest stall. */
+		public long getMaxTime() {
+			return maxTime;
+		}
+
+		@Override
+		public String toString() {
+			return blamed + ": " + stallCount + " stalls, " + totalTime + "ms total, " + maxTime + "ms max";
+		}
+	}
+
+	private class ListenerNotifier implements Runnable {
+		@Override
+		public void run() {
+			isNotifyPending.set(false);
+			for (Listener listener : listeners) {
+				listener.watched(EDTWatchdog.this);
+			}
+		}
+	}
+
+	private class Probe implements Runnable {
+		@Override
+		public void run() {
+			swingThread = Thread.currentThread();
+			probeRunTime = System.currentTimeMillis();
+		}
+	}
+
+	private class WatchdogThread extends Thread {
+
+		private final Probe probe = new Probe();
+
+		/** Notify listeners of the latency every this many probes - even without stalls. */
+		private static final int LATENCY_NOTIFY_PROBES = 10;
+
+		WatchdogThread() {
+			super("EDT-Watchdog");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			int probes = 0;
+			try {
+				while (!isInterrupted()) {
+
+					long postTime = System.currentTimeMillis();
+					probeRunTime = 0;
+					SwingUtilities.invokeLater(probe);
+
+					List<String> samples = null;
+
+					// Wait for the probe - sampling the swing thread if stalled
+					while (probeRunTime == 0) {
+						long waited = System.currentTimeMillis() - postTime;
+
+						if (waited < THRESHOLD_MS) {
+							sleep(Math.min(SAMPLE_INTERVAL_MS, THRESHOLD_MS - waited));
+							continue;
+						}
+
+						Thread stalled = swingThread;
+						if (stalled != null) {
+							if (samples == null) samples = new ArrayList<String>();
+							samples.add(attribute(stalled.getStackTrace()));
+						}
+						sleep(SAMPLE_INTERVAL_MS);
+					}
+
+					long latency = probeRunTime - postTime;
+					probed(latency);
+
+					if (latency >= THRESHOLD_MS) { // Unattributed if the swing thread was not known yet
+						stallEnded(latency, (samples == null) ? Collections.<String>emptyList() : samples);
+					} else if (++probes % LATENCY_NOTIFY_PROBES == 0) {
+						notifyListeners();
+					}
+
+					sleep(PROBE_INTERVAL_MS);
+				}
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+}
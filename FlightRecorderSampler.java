@@ -0,0 +1,384 @@
+package org.expeditee.items.widgets;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import org.expeditee.gui.FrameIO;
+
+/**
+ * Streams JDK Flight Recorder events from this JVM, and sums them up per flush (about a second)
+ * for the {@link ProfilerMonitor}s - shared so that however many are shown there is only
+ * one stream.
+ *
+ * Alongside the stream a profiling recording is kept, bounded by {@link #RECORDING_MAX_AGE},
+ * so that the last few minutes can be dumped to a file on demand for closer analysis.
+ *
+ * Needs JDK 14 or later (event streaming).
+ */
+final class FlightRecorderSampler {
+
+	/** How many flushes are kept per metric. */
+	static final int HISTORY_SIZE = 256;
+
+	/** How many hot methods are kept per flush. */
+	static final int HOT_METHOD_COUNT = 5;
+
+	static final Duration RECORDING_MAX_AGE = Duration.ofMinutes(5);
+
+	/** Monitor waits shorter than this are not contention worth seeing. */
+	private static final Duration CONTENTION_THRESHOLD = Duration.ofMillis(10);
+
+	private static final Duration EXECUTION_SAMPLE_PERIOD = Duration.ofMillis(20);
+
+	/** What is summed per flush. */
+	enum Metric {
+		/** Bytes allocated per second. */
+		ALLOCATION_RATE,
+		/** Milliseconds paused for GC. */
+		GC_PAUSE,
+		/** JVM CPU load from 0 to 1. */
+		JVM_CPU,
+		/** Machine CPU load from 0 to 1. */
+		MACHINE_CPU,
+		/** Milliseconds threads waited to enter contended monitors. */
+		CONTENTION
+	}
+
+	private static final Metric[] METRICS = Metric.values();
+
+	private static FlightRecorderSampler _instance = null;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final AtomicBoolean isNotifyPending = new AtomicBoolean(false);
+
+	private final Runnable notifier = new ListenerNotifier();
+
+	private RecordingStream stream = null; // guarded by this
+
+	private Recording recording = null; // guarded by this
+
+	// The following are guarded by history
+
+	private final double[][] history = new double[METRICS.length][HISTORY_SIZE];
+
+	private long flushCount = 0;
+
+	private long flushTime = 0;
+
+	private List<String> hotMethods = Collections.emptyList();
+
+	private String topContendedMonitor = null;
+
+	// The following are only accessed by the stream thread
+
+	private final double[] current = new double[METRICS.length];
+
+	private final Map<Long, Long> threadAllocations = new HashMap<Long, Long>();
+
+	private final Map<String, Integer> methodSamples = new HashMap<String, Integer>();
+
+	private final Map<String, Double> monitorWaits = new HashMap<String, Double>();
+
+	private FlightRecorderSampler() {
+	}
+
+	static synchronized FlightRecorderSampler getInstance() {
+		if (_instance == null) _instance = new FlightRecorderSampler();
+		return _instance;
+	}
+
+	/**
+	 * Notified on the swing thread after each flush. Notifications are coalesced.
+	 */
+	interface Listener {
+		void flushed(FlightRecorderSampler sampler);
+	}
+
+	/**
+	 * Starts streaming if not already.
+	 *
+	 * @throws IllegalStateException
+	 * 		If flight recorder is not available in this JVM.
+	 */
+	synchronized void addListener(Listener listener) {
+		if (listener == null) throw new NullPointerException("listener");
+		if (listeners.contains(listener)) return;
+
+		if (stream == null) {
+			try {
+				start();
+			} catch (RuntimeException e) {
+				if (stream != null) stop();
+				throw e;
+			}
+		}
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stops streaming once the last listener is removed.
+	 */
+	synchronized void removeListener(Listener listener) {
+		listeners.remove(listener);
+		if (listeners.isEmpty() && stream != null) stop();
+	}
+
+	/**
+	 * Must hold lock.
+	 */
+	private void start() {
+		stream = new RecordingStream();
+
+		stream.enable("jdk.CPULoad").withPeriod(Duration.ofSeconds(1));
+		stream.enable("jdk.ThreadAllocationStatistics").withPeriod(Duration.ofSeconds(1));
+		stream.enable("jdk.GarbageCollection");
+		stream.enable("jdk.ExecutionSample").withPeriod(EXECUTION_SAMPLE_PERIOD).withStackTrace();
+		stream.enable("jdk.JavaMonitorEnter").withThreshold(CONTENTION_THRESHOLD);
+
+		stream.onEvent("jdk.CPULoad", new Consumer<RecordedEvent>() {
+			@Override
+			public void accept(RecordedEvent event) {
+				current[Metric.JVM_CPU.ordinal()] = event.getFloat("jvmUser") + event.getFloat("jvmSystem");
+				current[Metric.MACHINE_CPU.ordinal()] = event.getFloat("machineTotal");
+			}
+		});
+
+		stream.onEvent("jdk.ThreadAllocationStatistics", new Consumer<RecordedEvent>() {
+			@Override
+			public void accept(RecordedEvent event) {
+				if (event.getThread("eventThread") == null) return;
+				long threadId = event.getThread("eventThread").getJavaThreadId();
+				long allocated = event.getLong("allocated");
+				Long last = threadAllocations.put(threadId, allocated);
+				if (last != null && allocated > last) current[Metric.ALLOCATION_RATE.ordinal()] += allocated - last;
+			}
+		});
+
+		stream.onEvent("jdk.GarbageCollection", new Consumer<RecordedEvent>() {
+			@Override
+			public void accept(RecordedEvent event) {
+				current[Metric.GC_PAUSE.ordinal()] += event.getDuration("sumOfPauses").toNanos() / 1e6;
+			}
+		});
+
+		stream.onEvent("jdk.ExecutionSample", new Consumer<RecordedEvent>() {
+			@Override
+			public void accept(RecordedEvent event) {
+				RecordedStackTrace trace = event.getStackTrace();
+				if (trace == null || trace.getFrames().isEmpty()) return;
+				RecordedFrame top = trace.getFrames().get(0);
+				if (!top.isJavaFrame()) return;
+
+				String method = top.getMethod().getType().getName() + "." + top.getMethod().getName();
+				Integer count = methodSamples.get(method);
+				methodSamples.put(method, (count == null) ? 1 : count + 1);
+			}
+		});
+
+		stream.onEvent("jdk.JavaMonitorEnter", new Consumer<RecordedEvent>() {
+			@Override
+			public void accept(RecordedEvent event) {
+				double waited = event.getDuration().toNanos() / 1e6;
+				current[Metric.CONTENTION.ordinal()] += waited;
+
+				String monitor = (event.getClass("monitorClass") == null) ? "?" : event.getClass("monitorClass").getName();
+				Double total = monitorWaits.get(monitor);
+				monitorWaits.put(monitor, (total == null) ? waited : total + waited);
+			}
+		});
+
+		stream.onFlush(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+
+		stream.startAsync();
+
+		try {
+			recording = new Recording(Configuration.getConfiguration("profile"));
+			recording.setMaxAge(RECORDING_MAX_AGE);
+			recording.setToDisk(true);
+			recording.start();
+		} catch (Exception e) { // Streaming still works without the dumpable recording
+			e.printStackTrace();
+			recording = null;
+		}
+	}
+
+	/**
+	 * Must hold lock.
+	 */
+	private void stop() {
+		stream.close();
+		stream = null;
+
+		if (recording != null) {
+			recording.close();
+			recording = null;
+		}
+	}
+
+	/**
+	 * Stream thread only: publishes the sums since the last flush.
+	 */
+	private void flush() {
+
+		List<Map.Entry<String, Integer>> methods = new ArrayList<Map.Entry<String, Integer>>(methodSamples.entrySet());
+		Collections.sort(methods, new Comparator<Map.Entry<String, Integer>>() {
+			@Override
+			public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+
+		int total = 0;
+		for (Map.Entry<String, Integer> entry : methods) total += entry.getValue();
+
+		List<String> hot = new ArrayList<String>(HOT_METHOD_COUNT);
+		for (int i = 0; i < methods.size() && i < HOT_METHOD_COUNT; i++) {
+			hot.add((100 * methods.get(i).getValue() / total) + "% " + methods.get(i).getKey());
+		}
+
+		String topMonitor = null;
+		double topWait = 0;
+		for (Map.Entry<String, Double> entry : monitorWaits.entrySet()) {
+			if (entry.getValue() > topWait) {
+				topWait = entry.getValue();
+				topMonitor = entry.getKey();
+			}
+		}
+
+		long now = System.currentTimeMillis();
+
+		synchronized(history) {
+			int index = (int)(flushCount % HISTORY_SIZE);
+
+			// Rates are per second - flushes are about a second apart, but not exactly
+			double seconds = (flushTime == 0) ? 1.0 : Math.max(0.1, (now - flushTime) / 1000.0);
+			for (Metric metric : METRICS) {
+				double value = current[metric.ordinal()];
+				if (metric == Metric.ALLOCATION_RATE) value /= seconds;
+				history[metric.ordinal()][index] = value;
+			}
+
+			flushCount++;
+			flushTime = now;
+			hotMethods = Collections.unmodifiableList(hot);
+			topContendedMonitor = topMonitor;
+		}
+
+		// CPU load is a level, not a sum: keep it until the next reading
+		current[Metric.ALLOCATION_RATE.ordinal()] = 0;
+		current[Metric.GC_PAUSE.ordinal()] = 0;
+		current[Metric.CONTENTION.ordinal()] = 0;
+		methodSamples.clear();
+		monitorWaits.clear();
+
+		if (isNotifyPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(notifier);
+		}
+	}
+
+	/**
+	 * Copies the most recent values of a metric - oldest first.
+	 *
+	 * @return
+	 * 		The amount of values copied.
+	 */
+	int copyHistory(Metric metric, double[] dest) {
+		synchronized(history) {
+			int n = (int)Math.min(Math.min(dest.length, HISTORY_SIZE), flushCount);
+			double[] ring = history[metric.ordinal()];
+			for (int i = 0; i < n; i++) {
+				dest[i] = ring[(int)((flushCount - n + i) % HISTORY_SIZE)];
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The most recent value. Zero if nothing flushed yet.
+	 */
+	double getLatest(Metric metric) {
+		synchronized(history) {
+			if (flushCount == 0) return 0;
+			return history[metric.ordinal()][(int)((flushCount - 1) % HISTORY_SIZE)];
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The most sampled methods in the last flush, with their share of the samples. Never null.
+	 */
+	List<String> getHotMethods() {
+		synchronized(history) {
+			return hotMethods;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The class of the monitor waited on the most in the last flush. Null if none contended.
+	 */
+	String getTopContendedMonitor() {
+		synchronized(history) {
+			return topContendedMonitor;
+		}
+	}
+
+	/**
+	 * Dumps the last {@link #RECORDING_MAX_AGE} of the profiling recording.
+	 *
+	 * @return
+	 * 		The file dumped to.
+	 *
+	 * @throws IOException
+	 * 		If failed to write the file, or there is no recording running.
+	 */
+	synchronized File dumpRecording() throws IOException {
+		if (recording == null) throw new IOException("No flight recording is running");
+
+		File dir = new File(FrameIO.EXPORTS_DIR);
+		if (!dir.isDirectory()) dir = new File(System.getProperty("java.io.tmpdir"));
+
+		File file = new File(dir, "expeditee-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".jfr");
+		recording.dump(file.toPath());
+		return file;
+	}
+
+	private class ListenerNotifier implements Runnable {
+		@Override
+		public void run() {
+			isNotifyPending.set(false);
+			for (Listener listener : listeners) {
+				listener.flushed(FlightRecorderSampler.this);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+package org.expeditee.items.widgets;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameIO;
+import org.expeditee.items.Item;
+
+/**
+ * The part of the frame link graph around where the user has been working - learnt
+ * from the frames the user visits: their links, and the order they were visited in.
+ *
+ * Used by the WidgetCacheManager to tell how many hops away a widgets frame is from the
+ * current frame. Links are followed both ways, since the user can go back as easily as forward.
+ * Only the most recently visited frames are remembered.
+ *
+ * Swing thread only.
+ */
+final class FrameLinkGraph {
+
+	/** How many visited frames to remember the links of. */
+	private static final int MAX_FRAMES = FrameIO.MAX_CACHE * 2;
+
+	/** Frame name (lower case) to the names of the frames it links to - or was left for. */
+	private final Map<String, Set<String>> links = new LinkedHashMap<String, Set<String>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+			return size() > MAX_FRAMES;
+		}
+	};
+
+	private String currentFrame = null;
+
+	/** The hop distances from the current frame. Null until needed. */
+	private Map<String, Integer> distances = null;
+	private int distancesMaxHops = -1;
+
+	/**
+	 * Notes that the user has navigated to the given frame.
+	 *
+	 * @param frame
+	 * 		Must not be null.
+	 */
+	void visited(Frame frame) {
+		assert(frame != null);
+
+		List<String> frameLinks = new ArrayList<String>();
+		for (Item i : frame.getItems()) {
+			String link = i.getAbsoluteLink();
+			if (link != null) frameLinks.add(link);
+		}
+
+		visited(frame.getName(), frameLinks);
+	}
+
+	/**
+	 * @see #visited(Frame)
+	 *
+	 * @param frameName
+	 * 		The name of the frame. Ignored if null.
+	 *
+	 * @param frameLinks
+	 * 		The absolute names of the frames it links to.
+	 */
+	void visited(String frameName, Collection<String> frameLinks) {
+
+		String name = toKey(frameName);
+		if (name == null) return;
+
+		Set<String> outgoing = new HashSet<String>();
+		for (String frameLink : frameLinks) {
+			String link = toKey(frameLink);
+			if (link != null && !link.equals(name)) outgoing.add(link);
+		}
+
+		// Came from the previous frame - by a link, back or a jump: either way it is nearby
+		if (currentFrame != null && !currentFrame.equals(name)) {
+			outgoing.add(currentFrame);
+			Set<String> previous = links.get(currentFrame);
+			if (previous != null) previous.add(name);
+		}
+
+		links.put(name, outgoing);
+		currentFrame = name;
+		distances = null;
+	}
+
+	/**
+	 * @param frame
+	 * 		The frame of a widget. Null if in free space - in which case it is with the user.
+	 *
+	 * @param maxHops
+	 * 		The furthest to look.
+	 *
+	 * @return
+	 * 		The hop distance from the current frame. maxHops + 1 if further or unknown.
+	 */
+	int getDistance(Frame frame, int maxHops) {
+		if (frame == null) return 0;
+		return getDistance(frame.getName(), maxHops);
+	}
+
+	/**
+	 * @see #getDistance(Frame, int)
+	 *
+	 * @param frameName
+	 * 		The name of the frame.
+	 */
+	int getDistance(String frameName, int maxHops) {
+
+		String name = toKey(frameName);
+		if (name == null) return maxHops + 1;
+
+		Integer distance = getDistances(maxHops).get(name);
+		return (distance == null) ? maxHops + 1 : distance;
+	}
+
+	/**
+	 * Breadth first from the current frame, following links both ways.
+	 */
+	private Map<String, Integer> getDistances(int maxHops) {
+
+		if (distances != null && distancesMaxHops >= maxHops) return distances;
+
+		if (currentFrame == null) return Collections.emptyMap();
+
+		Map<String, Set<String>> undirected = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : links.entrySet()) {
+			for (String target : entry.getValue()) {
+				addEdge(undirected, entry.getKey(), target);
+				addEdge(undirected, target, entry.getKey());
+			}
+		}
+
+		Map<String, Integer> found = new HashMap<String, Integer>();
+		found.put(currentFrame, 0);
+
+		LinkedList<String> toVisit = new LinkedList<String>();
+		toVisit.add(currentFrame);
+
+		while (!toVisit.isEmpty()) {
+			String name = toVisit.removeFirst();
+			int hops = found.get(name);
+			if (hops >= maxHops) continue;
+
+			Set<String> neighbours = undirected.get(name);
+			if (neighbours == null) continue;
+
+			for (String neighbour : neighbours) {
+				if (!found.containsKey(neighbour)) {
+					found.put(neighbour, hops + 1);
+					toVisit.add(neighbour);
+				}
+			}
+		}
+
+		distances = found;
+		distancesMaxHops = maxHops;
+		return found;
+	}
+
+	private static void addEdge(Map<String, Set<String>> graph, String from, String to) {
+		Set<String> targets = graph.get(from);
+		if (targets == null) {
+			targets = new HashSet<String>();
+			graph.put(from, targets);
+		}
+		targets.add(to);
+	}
+
+	private static String toKey(String frameName) {
+		return (frameName == null) ? null : frameName.toLowerCase();
+	}
+
+}
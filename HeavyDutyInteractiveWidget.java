@@ -9,7 +9,18 @@ import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
@@ -21,7 +32,6 @@ import org.expeditee.gui.FreeItems;
 import org.expeditee.items.Item;
 import org.expeditee.items.ItemParentStateChangedEvent;
 import org.expeditee.items.Text;
-import org.expeditee.taskmanagement.EntityLoadManager;
 import org.expeditee.taskmanagement.EntitySaveManager;
 import org.expeditee.taskmanagement.LoadableEntity;
 import org.expeditee.taskmanagement.SaveableEntity;
@@ -35,9 +45,13 @@ import org.expeditee.taskmanagement.SaveableEntity;
  * until expeditee allocates a thread to begin loading. The swing component is set as not-visible.
  * 
  * At the the loading stage, a loadable widget proccesses its load task and renders a
- * load message/bar.
+ * load message/bar. Pending widgets are loaded in order of how prominent they are on screen,
+ * see {@link HeavyDutyLoadScheduler}.
  * 
  * Once loaded, the widget is like any other widget - and its visible state will be set as visible.
+ * A widget can also load progressively: by publishing usable partial states while loading
+ * (see {@link #publishPartialLoad(Runnable)}) it becomes visible and interactive at the first
+ * publish, with a thin progress strip rendered over it until the load completes.
  * 
  * When a HeavyDutyInteractiveWidget becomes visible / is anchored, it will register itself for saving at the next
  * save point according to SaveEntityManager. Heavey duty widgets will only save at the save points 
@@ -50,6 +64,10 @@ import org.expeditee.taskmanagement.SaveableEntity;
  * 
  * When a heavy duty widget is deleted - any data consuming memory can be dumped temporarily if needed.
  * 
+ * The load state is an atomic state machine (see {@link HeavyDutyLoadState}) - so it can be read
+ * from any thread without locking, and transitions can be observed with {@link LoadStateListener}s.
+ * Loads and saves can be requested without blocking via {@link #requestLoad()} and {@link #requestSave()}.
+ * 
  * @author Brook Novak
  *
  */
@@ -67,6 +85,17 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	/** load was cancelled and still requires loading */
 	public static final float LOAD_STATE_INCOMPLETED = 5.0f; 
 	
+	/**
+	 * What limits the speed of a widgets load. Widgets load concurrently in
+	 * a lane per load class - see {@link HeavyDutyLoadScheduler}.
+	 */
+	public enum LoadClass {
+		/** Mostly waits on disk or network: many can load at once. */
+		IOBound,
+		/** Mostly computes: about one load per core. */
+		CPUBound
+	}
+	
 	// GUI Stuff
 	private static final String DEFAULT_LOAD_MESSAGE = "Loading";
 	private static final String PENDING_MESSAGE = "Pending";
@@ -82,16 +111,31 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	
 	private static final int BAR_HOROZONTIAL_MARGIN = 20;
 	private static final int BAR_HEIGHT = 40;
+	private static final int PARTIAL_LOAD_STRIP_HEIGHT = 4;
 	
-	/** Unifies state transitions to a single thread. */
-	private HDWEventDispatcher eventDispatcher = null;
+	/** Unifies state transitions to a single thread at a time. Runs on the shared HeavyDutyWidgetExecutor. */
+	private final HDWEventDispatcher eventDispatcher = new HDWEventDispatcher();
 	private LinkedList<HDWEvent> queuedEvents = new LinkedList<HDWEvent>();
+	private Map<HDWEvent, CompletableFuture<Float>> queuedEventFutures = 
+		new EnumMap<HDWEvent, CompletableFuture<Float>>(HDWEvent.class); // guarded by queuedEvents
+	private volatile boolean isDispatching = false; // guarded by queuedEvents
 	
 	// Model data
-	private float loadState; // handled by constructors and stateProccessor
-	private String screenMessage = DEFAULT_LOAD_MESSAGE;
-	private boolean hasCancelledBeenRequested;
-	private boolean isExpired = false;
+	private final HeavyDutyLoadState loadState; // transitioned by the eventDispatcher only
+	private final HeavyDutyLoadProgress loadProgress = new HeavyDutyLoadProgress(this); // updated by the eventDispatcher only
+	private volatile String screenMessage = DEFAULT_LOAD_MESSAGE;
+	private LoadScreenLayout loadScreenLayout = null; // swing thread only
+	private volatile LoadCancellationToken loadToken = new LoadCancellationToken(); // of the latest load request
+	private volatile LoadCancellationToken activeLoadToken = null; // of the running load
+	private volatile boolean isPartiallyLoaded = false; // set by the eventDispatcher only
+	private boolean wasTempUnloaded = false; // eventDispatcher only: the last unload was temporary rather than an expiry
+	private volatile WidgetJournal journal = null; // opened by the eventDispatcher only
+	private final List<SharedLoadRegistry.Entry> heldSharedLoads = 
+		new LinkedList<SharedLoadRegistry.Entry>(); // eventDispatcher only
+	private final List<MappedFileReader> openMappedFiles = 
+		new LinkedList<MappedFileReader>(); // eventDispatcher only
+	private final AtomicReference<HeavyDutyLoadCheckpoint> loadCheckpoint = 
+		new AtomicReference<HeavyDutyLoadCheckpoint>(null);
 	private int cacheDepth = -1;
 
 	/**
@@ -127,9 +171,9 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 		this.cacheDepth = cacheDepth;
 		
 		if (skipLoad) {
-			loadState = LOAD_STATE_COMPLETED;
+			loadState = new HeavyDutyLoadState(this, LOAD_STATE_COMPLETED);
 		} else {
-			loadState = LOAD_STATE_PENDING;
+			loadState = new HeavyDutyLoadState(this, LOAD_STATE_PENDING);
 			component.setVisible(false); // not allowed to interact with it yet
 			component.setEnabled(false);
 		}
@@ -153,8 +197,12 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	/**
 	 * Updates the percentage of the load. Should only call when in load phase.
 	 * 
+	 * Can be called as often as is convenient - the load screen is only repainted once
+	 * the load bar visibly moves, and at a limited rate (see {@link HeavyDutyLoadProgress}).
+	 * 
 	 * @param percent 
 	 * 		Must be between 0.0 and 1.0 inclusive for percentage. Or neagtive if indeterminant.
+	 * 		If the load has stages then this is the percentage of the current stage.
 	 * 
 	 * @throws IllegalArgumentException
 	 * 		If percent is larger than 1.0
@@ -167,13 +215,109 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 		if (percent > 1.0f) 
 			throw new IllegalArgumentException("loadState is larger than 1.0");
 		
-		else if (!isInLoadProgress() ||
-				eventDispatcher == null ||
-				!eventDispatcher.isAlive()) 
+		else if (!isInLoadProgress() || !isDispatching) 
 			throw new IllegalStateException("Load is not in progress");
 		
 		// Assuming that this is called from eventDispatcher.
-		eventDispatcher.setLoadState(percent, false);
+		eventDispatcher.setLoadState(loadProgress.toOverallProgress(percent), false);
+	}
+	
+	/**
+	 * Splits the load into stages - e.g. reading, parsing and indexing. Once set,
+	 * updateLoadPercentage reports the progress of the current stage and the load bar shows
+	 * the overall progress. Starts at the first stage. Should only call when in load phase.
+	 * 
+	 * @param weights
+	 * 		The relative weight of each stage - i.e. how much of the load each takes.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If there are no stages, or the weights are negative or sum to zero.
+	 * 
+	 * @throws IllegalStateException
+	 * 		Load is not in progress
+	 */
+	protected final void setLoadStages(float... weights) {
+		if (!isInLoadProgress() || !isDispatching) 
+			throw new IllegalStateException("Load is not in progress");
+		
+		loadProgress.setStages(weights);
+	}
+	
+	/**
+	 * Moves the load on to the given stage. Should only call when in load phase.
+	 * 
+	 * @param stage
+	 * 		The index of the stage as given to setLoadStages.
+	 * 
+	 * @throws IllegalStateException
+	 * 		Load is not in progress, or its stages have not been set.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If there is no such stage.
+	 */
+	protected final void beginLoadStage(int stage) {
+		if (!isInLoadProgress() || !isDispatching) 
+			throw new IllegalStateException("Load is not in progress");
+		
+		loadProgress.beginStage(stage);
+		eventDispatcher.setLoadState(loadProgress.toOverallProgress(0.0f), false);
+	}
+	
+	/**
+	 * @return
+	 * 		The estimated time left of the current load in milliseconds - from the progress
+	 * 		reported so far. Negative if unknown.
+	 */
+	protected long getEstimatedLoadTimeLeft() {
+		return isInLoadProgress() ? loadProgress.getEstimatedTimeLeft() : -1;
+	}
+	
+	/**
+	 * Publishes a usable partial state while loading - e.g. the first page, the first
+	 * N rows or a low resolution preview. Should only call when in load phase.
+	 * 
+	 * At the first publish the swing component is made visible and enabled, so the user can
+	 * interact with the partial data while the rest loads. Keep publishing to refine it.
+	 * If the load fails then the widget reverts to its load screen. If the load is cancelled
+	 * then the partial state remains usable until the widget is loaded again or unloaded.
+	 * 
+	 * @param update
+	 * 		Applies the partial state to the swing component. Run on the swing thread.
+	 * 		Can be null if the component does not need updating.
+	 * 
+	 * @throws IllegalStateException
+	 * 		Load is not in progress
+	 * 
+	 */
+	protected final void publishPartialLoad(final Runnable update) {
+		if (!isInLoadProgress() || !isDispatching) 
+			throw new IllegalStateException("Load is not in progress");
+		
+		final boolean isFirstPublish = !isPartiallyLoaded;
+		isPartiallyLoaded = true;
+		
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (update != null) update.run();
+				if (isFirstPublish) {
+					_swingComponent.setVisible(true);
+					_swingComponent.setEnabled(true);
+				}
+				FrameGraphics.invalidateArea(getBounds());
+				FrameGraphics.requestRefresh(true);
+			}
+		});
+	}
+	
+	/**
+	 * @return
+	 * 		True if a partial state has been published and the widget has not completed loading.
+	 * 
+	 * @see #publishPartialLoad(Runnable)
+	 */
+	protected boolean isPartiallyLoaded() {
+		return isPartiallyLoaded && loadState.get() != LOAD_STATE_COMPLETED;
 	}
 	
 	
@@ -181,14 +325,28 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	 * @return The current load state.
 	 */
 	protected float getLoadState() {
-		return loadState;
+		return loadState.get();
 	}
 	
 	/**
 	 * @return True if in a loading phase.
 	 */
 	protected boolean isInLoadProgress() {
-		return loadState <= 1.0f;
+		return loadState.get() <= 1.0f;
+	}
+	
+	/**
+	 * Listens for load state transitions.
+	 * 
+	 * @param listener
+	 * 		Must not be null.
+	 */
+	public void addLoadStateListener(LoadStateListener listener) {
+		loadState.addListener(listener);
+	}
+	
+	public void removeLoadStateListener(LoadStateListener listener) {
+		loadState.removeListener(listener);
 	}
 	
 	/**
@@ -213,27 +371,58 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	
 	@Override
 	public void paintInFreeSpace(Graphics g) {
-		if (loadState == LOAD_STATE_COMPLETED) super.paintInFreeSpace(g);
-		else paintLoadScreen(g, LOAD_SCREEN_COLOR_FREESPACE);
+		float state = loadState.get(); // Snapshot: the state can change while painting
+		if (state == LOAD_STATE_COMPLETED || isPartiallyLoaded) super.paintInFreeSpace(g);
+		else paintLoadScreen(g, LOAD_SCREEN_COLOR_FREESPACE, state);
 	}
 
 	@Override
 	public void paint(Graphics g) {
-		if (loadState == LOAD_STATE_COMPLETED) {
+		float state = loadState.get(); // Snapshot: the state can change while painting
+		if (state == LOAD_STATE_COMPLETED) {
+			super.paint(g);
+		} else if (isPartiallyLoaded) {
 			super.paint(g);
+			paintPartialLoadStrip(g, state);
 		} else {
-			paintLoadScreen(g, LOAD_SCREEN_COLOR);
+			paintLoadScreen(g, LOAD_SCREEN_COLOR, state);
 			this.paintLink((Graphics2D)g);
 		}
 		
 	}
 	
+	/**
+	 * Renders a thin progress strip along the bottom of a partially loaded widget.
+	 * 
+	 * @param g
+	 * 
+	 * @param state
+	 * 		The load state to render.
+	 */
+	private void paintPartialLoadStrip(Graphics g, float state) {
+		
+		if (state > 1.0f) return; // Not loading
+		
+		int stripY = getY() + getHeight() - PARTIAL_LOAD_STRIP_HEIGHT;
+		
+		if (state < 0.0f) { // indeterminant
+			g.setColor(LOAD_BAR_INDETERM_COLOR);
+			g.fillRect(getX(), stripY, getWidth(), PARTIAL_LOAD_STRIP_HEIGHT);
+		} else {
+			g.setColor(LOAD_BAR_PROGRESS_COLOR);
+			g.fillRect(getX(), stripY, (int)(getWidth() * state), PARTIAL_LOAD_STRIP_HEIGHT);
+		}
+	}
+	
 	/**
 	 * Rendersthe load bar / load messages
 	 * 
 	 * @param g
+	 * 
+	 * @param state
+	 * 		The load state to render.
 	 */
-	private void paintLoadScreen(Graphics g, Color backgroundColor) {
+	private void paintLoadScreen(Graphics g, Color backgroundColor, float state) {
 
 		if (Browser._theBrowser == null) return;
 		
@@ -241,32 +430,24 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 		g.setColor(backgroundColor);
 		g.fillRect(getX(), getY(), getWidth(), getHeight());
 		
-		// Center the bar
-		int barX = getX() + BAR_HOROZONTIAL_MARGIN;
-		int barY = getY() + (getHeight() >> 1) - (BAR_HEIGHT >> 1);
-		
-		int barWidth = getWidth() - (BAR_HOROZONTIAL_MARGIN * 2);
-		if (barWidth <= 0) barWidth = 10;
-		
-		// Center the text
-		Font f = (loadState < 0.0f) ? LOAD_INDERTMIN_FONT : LOAD_NORMAL_FONT;
-		String message = (loadState == LOAD_STATE_PENDING || loadState == LOAD_STATE_INCOMPLETED) ? 
-				PENDING_MESSAGE : screenMessage;
-		
-		g.setFont(f);
+		Font f = (state < 0.0f) ? LOAD_INDERTMIN_FONT : LOAD_NORMAL_FONT;
+		String message;
+		String statusText = null;
+		if (state == LOAD_STATE_PENDING || state == LOAD_STATE_INCOMPLETED) {
+			message = PENDING_MESSAGE;
+		} else {
+			message = screenMessage;
+			if (state <= 1.0f) statusText = loadProgress.getStatusText();
+		}
 		
 		// If need to re-calc the message drawing area... do so
-
-		FontMetrics fm   = g.getFontMetrics(f);
-		Rectangle2D rect = fm.getStringBounds(message, g);
-		int textHeight = (int)(rect.getHeight()); 
-		int textWidth  = (int)(rect.getWidth());
+		LoadScreenLayout layout = loadScreenLayout;
+		if (layout == null || !layout.isFor(getX(), getY(), getWidth(), getHeight(), f, message, statusText)) {
+			layout = new LoadScreenLayout(g, getX(), getY(), getWidth(), getHeight(), f, message, statusText);
+			loadScreenLayout = layout;
+		}
 		
-		int textX = barX + ((barWidth - textWidth) >> 1);
-		if (textX <= 0) textX = BAR_HOROZONTIAL_MARGIN + 10;
-		int textY = barY +  ((BAR_HEIGHT - textHeight) >> 1);
-		if (textY <= 0) textY = barY + 2;
-		textY += textHeight;
+		g.setFont(f);
 		
 		// Ensure that load bar and text doesn't spill over widgets invalidation area
 		Shape clipBackUp = g.getClip();
@@ -278,67 +459,170 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 		g.setClip(tmpClip.intersection(getBounds()));
 	
 		
-		if (loadState < 0.0f) { // indeterminant
+		if (state < 0.0f) { // indeterminant
 
-			GradientPaint gp = new GradientPaint(
-					0, barY + (int)(BAR_HEIGHT * 0.8), LOAD_BAR_INDETERM_COLOR,
-					0, barY, LOAD_BAR_HIGHLIGHT_COLOR);
-			((Graphics2D)g).setPaint(gp);
-		
-			g.fillRect(barX, barY, barWidth, BAR_HEIGHT);
+			((Graphics2D)g).setPaint(layout.indeterminantPaint);
+			g.fillRect(layout.barX, layout.barY, layout.barWidth, BAR_HEIGHT);
 			
-		} else if (isInLoadProgress()) {
+		} else if (state <= 1.0f) {
 
-			int progBarWidth = (int)(barWidth * loadState);
+			int progBarWidth = (int)(layout.barWidth * state);
 			
-			GradientPaint gp = new GradientPaint(
-					0, barY + (int)(BAR_HEIGHT * 0.8), LOAD_BAR_PROGRESS_COLOR,
-					0, barY, LOAD_BAR_HIGHLIGHT_COLOR);
-			((Graphics2D)g).setPaint(gp);
-			
-			g.fillRect(barX, barY, progBarWidth, BAR_HEIGHT);
+			((Graphics2D)g).setPaint(layout.progressPaint);
+			g.fillRect(layout.barX, layout.barY, progBarWidth, BAR_HEIGHT);
 			
 		} 
 		
 		g.setColor(Color.DARK_GRAY);
-		g.drawRect(barX, barY, barWidth, BAR_HEIGHT);
+		g.drawRect(layout.barX, layout.barY, layout.barWidth, BAR_HEIGHT);
 		
-		if (loadState == LOAD_STATE_FAILED) 
+		if (state == LOAD_STATE_FAILED) 
 			g.setColor(Color.RED);
 		
 		else g.setColor(Color.BLACK);
 		
 
 		
-		g.drawString(message, textX, textY);
+		g.drawString(layout.text, layout.textX, layout.textY);
 		
 		g.setClip(clipBackUp);
 
 	}
 	
+	/**
+	 * @return
+	 * 		The width of the load bar in pixels.
+	 */
+	private int getLoadBarWidth() {
+		int barWidth = getWidth() - (BAR_HOROZONTIAL_MARGIN * 2);
+		return (barWidth <= 0) ? 10 : barWidth;
+	}
+	
+	/**
+	 * Where the load bar and message go - and their paints. Only recomputed once the
+	 * widget moves or resizes, or the message changes.
+	 */
+	private final class LoadScreenLayout {
+		
+		private final int x, y, width, height;
+		private final Font font;
+		private final String message;
+		private final String statusText;
+		
+		final String text;
+		final int barX, barY, barWidth;
+		final int textX, textY;
+		final GradientPaint progressPaint;
+		final GradientPaint indeterminantPaint;
+		
+		LoadScreenLayout(Graphics g, int x, int y, int width, int height, 
+				Font font, String message, String statusText) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.font = font;
+			this.message = message;
+			this.statusText = statusText;
+			
+			text = (statusText == null) ? message : message + " " + statusText;
+			
+			// Center the bar
+			barX = x + BAR_HOROZONTIAL_MARGIN;
+			barY = y + (height >> 1) - (BAR_HEIGHT >> 1);
+			barWidth = getLoadBarWidth();
+			
+			// Center the text
+			FontMetrics fm   = g.getFontMetrics(font);
+			Rectangle2D rect = fm.getStringBounds(text, g);
+			int textHeight = (int)(rect.getHeight()); 
+			int textWidth  = (int)(rect.getWidth());
+			
+			int tx = barX + ((barWidth - textWidth) >> 1);
+			if (tx <= 0) tx = BAR_HOROZONTIAL_MARGIN + 10;
+			int ty = barY +  ((BAR_HEIGHT - textHeight) >> 1);
+			if (ty <= 0) ty = barY + 2;
+			textX = tx;
+			textY = ty + textHeight;
+			
+			progressPaint = new GradientPaint(
+					0, barY + (int)(BAR_HEIGHT * 0.8), LOAD_BAR_PROGRESS_COLOR,
+					0, barY, LOAD_BAR_HIGHLIGHT_COLOR);
+			indeterminantPaint = new GradientPaint(
+					0, barY + (int)(BAR_HEIGHT * 0.8), LOAD_BAR_INDETERM_COLOR,
+					0, barY, LOAD_BAR_HIGHLIGHT_COLOR);
+		}
+		
+		boolean isFor(int x, int y, int width, int height, Font font, String message, String statusText) {
+			return this.x == x && this.y == y && this.width == width && this.height == height
+				&& this.font == font
+				&& (this.message == message || this.message.equals(message))
+				&& (this.statusText == null ? statusText == null : this.statusText.equals(statusText));
+		}
+	}
+	
 	
 	
 	/**
-	 * Invoked by the load queue manager only.
+	 * Invoked by the load queue manager only. Blocks until the load has been processed, as the
+	 * LoadableEntity contract requires. Widgets are queued through the HeavyDutyLoadScheduler,
+	 * which uses {@link #requestLoad()} instead - so its threads never wait on a load.
 	 */
 	@Override
 	public final void performLoad() {
 		
 		try {
+			loadToken = new LoadCancellationToken();
 			runEventAndWait(HDWEvent.Load);
 		} catch (InterruptedException e) {
-			loadState = LOAD_STATE_INCOMPLETED; // safety
-			e.printStackTrace();
+			// The load is on the widgets dispatcher: ask it to stop rather than leaving it unattended
+			cancelLoadRequested();
+			Thread.currentThread().interrupt();
 		}
 	}
+	
+	/**
+	 * Requests a load without blocking. The load is skipped if already loaded or not in view.
+	 * 
+	 * @return
+	 * 		A future that completes with the load state once the load has been processed.
+	 */
+	public final CompletableFuture<Float> requestLoad() {
+		loadToken = new LoadCancellationToken(); // A cancel from here on cancels this load
+		return queueEvent(HDWEvent.Load);
+	}
 
 	/**
 	 * Invoked by load manager
 	 */
 	@Override
 	public final void cancelLoadRequested() {
-		hasCancelledBeenRequested = true;
-		cancelLoadWidgetData();
+		cancelLoad(LoadCancellationToken.Reason.Requested);
+	}
+	
+	/**
+	 * Cancels the requested load - and the running load if it is an earlier one.
+	 * 
+	 * @param reason
+	 * 		Why the load is being cancelled.
+	 */
+	final void cancelLoad(LoadCancellationToken.Reason reason) {
+		boolean wasCancelled = loadToken.cancel(reason);
+		
+		LoadCancellationToken running = activeLoadToken;
+		if (running != null && running.cancel(reason)) wasCancelled = true;
+		
+		if (wasCancelled) cancelLoadWidgetData();
+	}
+	
+	/**
+	 * @return
+	 * 		The cancellation token of the current load - or of the next load if not loading.
+	 * 		Never null. A new token is issued for every load request.
+	 */
+	protected final LoadCancellationToken getLoadCancellationToken() {
+		LoadCancellationToken running = activeLoadToken;
+		return (running != null) ? running : loadToken;
 	}
 	
 	/**
@@ -346,7 +630,18 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	 * 		True if cancel has been requested. This is reset before a new load phase.
 	 */
 	protected boolean hasCancelBeenRequested() {
-		return hasCancelledBeenRequested;
+		return getLoadCancellationToken().isCancelled();
+	}
+	
+	/**
+	 * Override to stop the loading thread from being interrupted when the load is cancelled - 
+	 * e.g. if the load uses interruptible channels that must not be closed part way.
+	 * 
+	 * @return
+	 * 		True if the loading thread is interrupted on cancel. The default is true.
+	 */
+	protected boolean isLoadInterruptible() {
+		return true;
 	}
 	
 	/**
@@ -355,11 +650,11 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	 * 		True if this widget is in an expired state
 	 */
 	protected boolean isExpired() {
-		return isExpired;
+		return loadState.isExpired();
 	}
 	
 	protected boolean isLoaded() {
-		return this.loadState == LOAD_STATE_COMPLETED;
+		return loadState.get() == LOAD_STATE_COMPLETED;
 	}
 
 	/**
@@ -368,6 +663,8 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	@Override
 	public void onDelete() {
 		super.onDelete();
+		// Stop loading - including if deleted in free space, where navigation never cancels
+		HeavyDutyLoadScheduler.getInstance().cancel(this, LoadCancellationToken.Reason.Deleted);
 		// Evenetually - unload the data - with the intention of possible recovery, but not saving...
 		queueEvent(HDWEvent.UnloadTMP);
 	}
@@ -377,11 +674,16 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	 * Invoked when it is time to perform all asynchronous (heavey duty) loading for the widget.
 	 * 
 	 * The convention is to load until cancelLoadWidgetData is invoked. Once this is invoked it is
-	 * the widgets load logic's choice to whether to acknowledge it. Note that proceeding
-	 * loadable entities must wait until this returns - so it is best to heed the as soon as possible. 
+	 * the widgets load logic's choice to whether to acknowledge it. The load can also poll or
+	 * register callbacks with its cancellation token (see {@link #getLoadCancellationToken()}),
+	 * and is interrupted on cancel unless {@link #isLoadInterruptible()} is overriden. Note that proceeding
+	 * widgets in the same load lane (see {@link #getLoadClass()}) must wait until this returns
+	 * once the lane is full - so it is best to heed the as soon as possible. 
 	 * 
 	 * Use updateLoadPercentage to update the load bar and setLoadScreenMessage to set the message
 	 * for load feedback to users. It will start with the default loading message and progress at 0%.
+	 * Use publishPartialLoad to let users interact with the data loaded so far.
+	 * When cancelled, use saveLoadCheckpoint so that the next load can carry on with takeLoadCheckpoint.
 	 * 
 	 * @return 
 	 * 		The final load state. Must be either:
@@ -395,7 +697,174 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	protected abstract float loadWidgetData();
 	
 	/**
-	 * @see loadWidgetData, hasCancelBeenRequested
+	 * Opens a file to read through memory-mapped views. Reading it sequentially updates the
+	 * load bar by the bytes read, and stops the load once cancelled - by throwing a
+	 * CancellationException, which is treated as an incomplete load. Should only call when in load phase.
+	 * 
+	 * The file is closed once the load returns, if not closed earlier. 
+	 * If the load has stages, the progress is that of the current stage.
+	 * 
+	 * @param file
+	 * 		The file to read. Must not be null.
+	 * 
+	 * @return
+	 * 		The reader. Never null.
+	 * 
+	 * @throws IOException
+	 * 		If failed to open the file.
+	 * 
+	 * @throws IllegalStateException
+	 * 		Load is not in progress
+	 */
+	protected final MappedFileReader openMappedFile(File file) throws IOException {
+		if (!isInLoadProgress() || !isDispatching) 
+			throw new IllegalStateException("Load is not in progress");
+		
+		MappedFileReader reader = new MappedFileReader(this, getLoadCancellationToken(), file);
+		openMappedFiles.add(reader);
+		return reader;
+	}
+	
+	/**
+	 * Saves how far the load got - so that the next load can carry on from here rather than
+	 * starting again. Typically called when the load is cancelled, e.g. because the user left
+	 * the frame. Should only call when in load phase.
+	 * 
+	 * The checkpoint replaces any earlier one, and is dropped if not taken within
+	 * {@link #getLoadCheckpointTimeToLive()} - or once the widget loads or unloads.
+	 * 
+	 * @param state
+	 * 		Whatever the load needs to carry on. Must not be null.
+	 * 		Closed when dropped if Closeable.
+	 * 
+	 * @throws IllegalStateException
+	 * 		Load is not in progress
+	 */
+	protected final void saveLoadCheckpoint(Object state) {
+		if (state == null) throw new NullPointerException("state");
+		if (!isInLoadProgress() || !isDispatching) 
+			throw new IllegalStateException("Load is not in progress");
+		
+		final HeavyDutyLoadCheckpoint checkpoint = new HeavyDutyLoadCheckpoint(state, loadState.get());
+		
+		HeavyDutyLoadCheckpoint previous = loadCheckpoint.getAndSet(checkpoint);
+		if (previous != null) previous.dispose();
+		
+		HeavyDutyLoadCheckpoint.scheduleExpiry(new Runnable() {
+			@Override
+			public void run() {
+				if (loadCheckpoint.compareAndSet(checkpoint, null)) checkpoint.dispose();
+			}
+		}, getLoadCheckpointTimeToLive());
+	}
+	
+	/**
+	 * Takes the checkpoint saved by an earlier load - and moves the load bar on to where
+	 * that load got to. Should only call when in load phase.
+	 * 
+	 * @return
+	 * 		The state given to saveLoadCheckpoint. Null if there is no checkpoint,
+	 * 		or it was not taken in time - in which case load from the start.
+	 * 
+	 * @throws IllegalStateException
+	 * 		Load is not in progress
+	 */
+	protected final Object takeLoadCheckpoint() {
+		if (!isInLoadProgress() || !isDispatching) 
+			throw new IllegalStateException("Load is not in progress");
+		
+		HeavyDutyLoadCheckpoint checkpoint = loadCheckpoint.getAndSet(null);
+		if (checkpoint == null) return null;
+		
+		if (checkpoint.getProgress() > 0.0f) {
+			loadProgress.resumedFrom(checkpoint.getProgress());
+			eventDispatcher.setLoadState(checkpoint.getProgress(), false);
+		}
+		
+		return checkpoint.getState();
+	}
+	
+	/**
+	 * @return
+	 * 		True if there is a checkpoint to carry on loading from.
+	 */
+	protected boolean hasLoadCheckpoint() {
+		return loadCheckpoint.get() != null;
+	}
+	
+	/**
+	 * Override to keep checkpoints for longer or shorter.
+	 * 
+	 * @return
+	 * 		The time in milliseconds that a saved checkpoint may be taken within.
+	 * 		The default is the {@value HeavyDutyLoadCheckpoint#TIME_TO_LIVE_PROPERTY} system
+	 * 		property, or 60 seconds.
+	 */
+	protected long getLoadCheckpointTimeToLive() {
+		return HeavyDutyLoadCheckpoint.DEFAULT_TIME_TO_LIVE;
+	}
+	
+	private void dropLoadCheckpoint() {
+		HeavyDutyLoadCheckpoint checkpoint = loadCheckpoint.getAndSet(null);
+		if (checkpoint != null) checkpoint.dispose();
+	}
+	
+	/**
+	 * Override to share loads with other widgets that show the same resource - e.g. overlays
+	 * and copies of this widget. Only loads done through {@link #loadShared(SharedLoadRegistry.Loader)}
+	 * are shared. Keys are only shared between widgets of the same class.
+	 * 
+	 * @return
+	 * 		The key of the resource that this widget loads - e.g. its file path. Must implement
+	 * 		equals and hashCode. Null if not shared - the default.
+	 */
+	protected Object getLoadResourceKey() {
+		return null;
+	}
+	
+	/**
+	 * Loads the widgets resource, sharing the load with any other widget of the same class
+	 * loading the same resource key (see {@link #getLoadResourceKey()}). Only the first widget
+	 * runs the loader - the others wait for its payload. Should only call when in load phase.
+	 * 
+	 * The payload is held by this widget until it unloads, and dropped (closed, if Closeable)
+	 * once every widget holding it has unloaded. It is shared, so must not be modified.
+	 * 
+	 * @param loader
+	 * 		Loads the payload if no other widget is loading it. Must not be null.
+	 * 
+	 * @return
+	 * 		The shared payload. Never null.
+	 * 
+	 * @throws CancellationException
+	 * 		If this load was cancelled while waiting.
+	 * 
+	 * @throws Exception
+	 * 		If failed to load the payload - whichever widget ran the loader.
+	 * 
+	 * @throws IllegalStateException
+	 * 		Load is not in progress
+	 */
+	@SuppressWarnings("unchecked")
+	protected final <T> T loadShared(SharedLoadRegistry.Loader<T> loader) throws Exception {
+		if (loader == null) throw new NullPointerException("loader");
+		if (!isInLoadProgress() || !isDispatching) 
+			throw new IllegalStateException("Load is not in progress");
+		
+		Object key = getLoadResourceKey();
+		if (key == null) return loader.load();
+		
+		SharedLoadRegistry.Entry entry = SharedLoadRegistry.getInstance().acquire(
+				Arrays.asList(getClass(), key), loader, getLoadCancellationToken());
+		heldSharedLoads.add(entry);
+		
+		return (T)entry.getPayload();
+	}
+	
+	/**
+	 * Invoked once per cancelled load - on the cancelling thread.
+	 * 
+	 * @see loadWidgetData, hasCancelBeenRequested, getLoadCancellationToken
 	 */
 	protected void cancelLoadWidgetData() {}
 	
@@ -411,10 +880,11 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 				
 				// When anchored to the window, then requeue for loading iff load state 
 				// is currently pending or incomplete 
-				if (hasCancelledBeenRequested || 
-						loadState == LOAD_STATE_INCOMPLETED || 
-						loadState == LOAD_STATE_PENDING) { // if needing to load - then load
-					EntityLoadManager.getInstance().queue(this, getLoadDelayTime());
+				float state = loadState.get();
+				if (loadToken.isCancelled() || 
+						state == LOAD_STATE_INCOMPLETED || 
+						state == LOAD_STATE_PENDING) { // if needing to load - then load
+					HeavyDutyLoadScheduler.getInstance().queue(this, getLoadDelayTime());
 				} 
 				
 				// Ensure that registered for saving at next save point
@@ -457,29 +927,70 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 					return;
 			}
 			
-			// TODO: One problem with loading in free space is that there is no way of cancelling
-			// if the heavy duty widget is deleted in free space while loading.
-			// This is just an inefficiency.
-			EntityLoadManager.getInstance().cancel(HeavyDutyInteractiveWidget.this);
+			// Loads in free space are cancelled if the widget is deleted there - see onDelete
+			HeavyDutyLoadScheduler.getInstance().cancel(HeavyDutyInteractiveWidget.this,
+					LoadCancellationToken.Reason.Navigation);
 			
 		}
 	}
 
 	/**
-	 * @return The time to delay before loading begin when first in view.
+	 * @return The time to delay before loading begin when first in view. This is
+	 * 		stretched or shrunk by the HeavyDutyLoadScheduler to suit the navigation pace.
 	 */
 	public abstract int getLoadDelayTime();
+	
+	/**
+	 * Override if the load of the widget is CPU bound.
+	 * 
+	 * @return The load lane that this widget loads in. Never null.
+	 * 		The default is {@link LoadClass#IOBound}.
+	 */
+	public LoadClass getLoadClass() {
+		return LoadClass.IOBound;
+	}
 
 	/**
-	 * Invoked by save manager
+	 * Invoked by save manager. Unlike other saveable entities this returns once the save has been
+	 * requested - not once it has been made: the widgets due at a save point are saved concurrently
+	 * by the HeavyDutySaveCoordinator, after the save point is over. Use {@link #requestSave()} to
+	 * wait for the save.
 	 */
 	@Override
 	public final void performSave() {
-		try {
-			runEventAndWait(HDWEvent.Save);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+		HeavyDutySaveCoordinator.getInstance().requestSave(this);
+	}
+	
+	/**
+	 * Requests a save without blocking. The save is skipped if no longer belongs to a frame.
+	 * 
+	 * @see HeavyDutySaveCoordinator
+	 * 
+	 * @return
+	 * 		A future that completes once the save has been processed and committed.
+	 */
+	public final CompletableFuture<Void> requestSave() {
+		return HeavyDutySaveCoordinator.getInstance().requestSave(this);
+	}
+	
+	/**
+	 * Queues a save on this widgets dispatcher. For the HeavyDutySaveCoordinator only.
+	 * 
+	 * @return
+	 * 		A future that completes once saveWidgetData has returned.
+	 */
+	CompletableFuture<Float> queueSave() {
+		return queueEvent(HDWEvent.Save);
+	}
+	
+	/**
+	 * Makes this widgets journalled changes durable. For the HeavyDutySaveCoordinator only.
+	 * 
+	 * @throws IOException
+	 */
+	void commitJournal() throws IOException {
+		WidgetJournal j = journal;
+		if (j != null) j.commit();
 	}
 	
 	
@@ -489,13 +1000,46 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	 * 
 	 * Heavey duty widgets will only save at the save points if the widget
 	 * still belongs to a frame and is anchored.
+	 * 
+	 * Widgets with large state should consider appending only their changes to 
+	 * their journal (see {@link #getJournal()}) rather than rewriting all of their state.
+	 * Appended changes are committed along with the other widgets saved at the same save point.
 	 */
 	protected abstract void saveWidgetData();
 	
+	/**
+	 * Override to save incrementally via a {@link WidgetJournal} - created with the path of its
+	 * files and the {@link WidgetJournal.Snapshotter} that writes the full state of this widget.
+	 * The snapshotter is invoked on the widgets dispatcher, only while the widget is loaded.
+	 * 
+	 * @return
+	 * 		A new journal. Null if this widget does not keep a journal - the default.
+	 */
+	protected WidgetJournal createJournal() {
+		return null;
+	}
+	
+	/**
+	 * The journal for saving incrementally. Append changes in saveWidgetData, and replay 
+	 * them in loadWidgetData. Should only be used from those (and the unload methods).
+	 * 
+	 * After a save, if the journal has grown past its compaction threshold then it is 
+	 * compacted in the background - unless the widget has been unloaded by then, in which
+	 * case it is compacted after a later save.
+	 * 
+	 * @return
+	 * 		The journal. Null if {@link #createJournal()} is null.
+	 */
+	protected final WidgetJournal getJournal() {
+		if (journal == null) journal = createJournal();
+		return journal;
+	}
+	
 	/**
 	 * Only invoked if has cache expiry and has expired. Only if this is no longer visible.
 	 */
 	void expire() {
+		WidgetStatistics.getInstance().widgetExpired(this);
 		runEventLater(HDWEvent.Unload);
 	}
 	
@@ -510,9 +1054,41 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	 * or even when saving. Thus must be careful.
 	 * A simple approach would be to check the saving flag
 	 * 
+	 * If the data is expensive to load, consider spilling it with {@link #spillWidgetData(ByteBuffer)}
+	 * so that the next load can rehydrate it rather than loading from scratch.
 	 * 
 	 */
 	protected abstract void unloadWidgetData();
+	
+	/**
+	 * Invoked when expired, just before unloadWidgetData. Override to keep the loaded data in
+	 * the WidgetCacheManager retention tier rather than discarding it: the data is only softly
+	 * referenced, and if the GC has not cleared it by the time the widget is shown again it is
+	 * handed back through restoreWidgetData instead of loading.
+	 * 
+	 * The data is taken as is - so it must not be released by unloadWidgetData, and must
+	 * not reference this widget's swing component.
+	 * 
+	 * @return
+	 * 		The data to retain. Null to not retain anything - the default.
+	 */
+	protected Object retainWidgetData() {
+		return null;
+	}
+	
+	/**
+	 * Invoked instead of loadWidgetData when data retained by retainWidgetData is still available.
+	 * Runs on the load thread - but should be quick, e.g. reassigning references.
+	 * 
+	 * @param data
+	 * 		The data returned by retainWidgetData. Never null.
+	 * 
+	 * @return
+	 * 		True if restored - the widget is then loaded. False to load with loadWidgetData.
+	 */
+	protected boolean restoreWidgetData(Object data) {
+		return false;
+	}
 
 	/**
 	 * This is invoked asynronously when the item is deleted. This widget
@@ -520,7 +1096,8 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	 *
 	 * The intention is that the implementation should release its memory as if it were
 	 * expired - But it will not be saved. Thus the data should be dumped to a temporary file
-	 * so it can be recovered if it is recalled (un-deleted). Note that this is not the same as saving -
+	 * so it can be recovered if it is recalled (un-deleted) - {@link #spillWidgetData(ByteBuffer)}
+	 * does this. Note that this is not the same as saving -
 	 * the user would not expect the widget to save state if deleted.
 	 * 
 	 * This is never invoke <i>while</i> loading / saving / expiring. The operations
@@ -529,6 +1106,46 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 	 */
 	protected abstract void tempUnloadWidgetData();
 
+	/**
+	 * Spills in-memory state to the session spill store - typically when unloading.
+	 * Replaces any previous spill. The spill is deleted automatically once this widget
+	 * is deleted for good.
+	 * 
+	 * @see WidgetSpillStore
+	 * 
+	 * @param data
+	 * 		The data from its position to its limit. Must not be null.
+	 * 
+	 * @return
+	 * 		True if spilled.
+	 */
+	protected final boolean spillWidgetData(ByteBuffer data) {
+		WidgetSpillStore store = WidgetSpillStore.getInstance();
+		return store != null && store.spill(this, data);
+	}
+	
+	/**
+	 * Rehydrates the data spilled by {@link #spillWidgetData(ByteBuffer)} - typically at the
+	 * start of loadWidgetData. The data is memory-mapped rather than read: it is paged in
+	 * as it is accessed.
+	 * 
+	 * @return
+	 * 		A read-only buffer over the spilled data. Null if there is no spill - in which
+	 * 		case the widget must go through its full load.
+	 */
+	protected final ByteBuffer rehydrateWidgetData() {
+		WidgetSpillStore store = WidgetSpillStore.getInstance();
+		return (store != null) ? store.rehydrate(this) : null;
+	}
+	
+	/**
+	 * Deletes the spill of this widget - if any. E.g. once the spilled state is out of date.
+	 */
+	protected final void discardSpilledWidgetData() {
+		WidgetSpillStore store = WidgetSpillStore.getInstance();
+		if (store != null) store.discard(this);
+	}
+
 	/**
 	 * The cache depth is measured by how many frames the user can traverse through until
 	 * the widget should expire.
@@ -542,41 +1159,57 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 		return cacheDepth;
 	}
 
-	private synchronized void runEventAndWait(HDWEvent event) throws InterruptedException {
-		queueEvent(event);
-		eventDispatcher.join();
+	private void runEventAndWait(HDWEvent event) throws InterruptedException {
+		try {
+			queueEvent(event).get();
+		} catch (ExecutionException e) {
+			// Already reported by the dispatcher
+		}
 	}
 	
 	private void runEventLater(HDWEvent event) {
 		queueEvent(event);
 	}
 	
-	private void queueEvent(HDWEvent event) {
+	/**
+	 * @return
+	 * 		The future for the event. If the event is already queued then
+	 * 		it is not queued again - and the same future is returned.
+	 */
+	private CompletableFuture<Float> queueEvent(HDWEvent event) {
 		
 		synchronized(queuedEvents) {
 			
-			if (!queuedEvents.contains(event))
+			CompletableFuture<Float> future = queuedEventFutures.get(event);
+			
+			if (future == null) {
+				future = new CompletableFuture<Float>();
 				queuedEvents.add(event);
-		
-	
-			if (eventDispatcher == null || !eventDispatcher.isAlive()) {
-				eventDispatcher = new HDWEventDispatcher();
-				eventDispatcher.start();
+				queuedEventFutures.put(event, future);
 			}
 		
+			// Only one thread may drain the mailbox at a time
+			if (!isDispatching) {
+				isDispatching = true;
+				HeavyDutyWidgetExecutor.getExecutor().execute(eventDispatcher);
+			}
+			
+			return future;
 		}
 		
 	}
 	
 	
 	/**
-	 * Unified state management. Load states are handled by one thread always.
-	 * Only has one instance - per widget instance, of this at any given time,
+	 * Unified state management. Load states are handled by one thread at a time.
+	 * Only has one instance - per widget instance. It is submitted to the shared
+	 * executor whenever the widgets mailbox (queuedEvents) has events, and runs
+	 * until the mailbox is empty.
 	 * 
 	 * @author Brook
 	 *
 	 */
-	private class HDWEventDispatcher extends Thread {
+	private class HDWEventDispatcher implements Runnable {
 		
 		/**
 		 * @param loadState 
@@ -590,20 +1223,18 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 		 *  	<li>negative if loading but indeterminant.
 		 * 	</ul>
 		 * 		
+		 * @throws IllegalStateException
+		 * 		If the transition is not legal from the current state. Fails the event being
+		 * 		dispatched - thus surfaces through its future.
 		 */
 		private void setLoadState(float state, boolean expired) {
-			assert (state == LOAD_STATE_FAILED || state != LOAD_STATE_INCOMPLETED ||
-					state != LOAD_STATE_PENDING || state != LOAD_STATE_COMPLETED ||
-					state < 1.0f) ;
-			
-			assert (!expired || 
-					(expired && state == LOAD_STATE_PENDING));
-			
 			
-			isExpired = expired;
-			loadState = state;
+			if (!loadState.transition(state, expired)) {
+				throw new IllegalStateException("Illegal load state transition from " + 
+						loadState.get() + " to " + state);
+			}
 			
-			if (loadState == LOAD_STATE_COMPLETED) { // set enabled state - show the swing components
+			if (state == LOAD_STATE_COMPLETED) { // set enabled state - show the swing components
 				SwingUtilities.invokeLater(new Runnable() {
 					@Override
 					public void run() {
@@ -612,7 +1243,11 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 					}
 				});
 				
-			} else if(expired) { // disable/hide swing GUI when expires, like a reset
+			} else if(expired || (state == LOAD_STATE_FAILED && isPartiallyLoaded)) { 
+				// disable/hide swing GUI when expires, like a reset. Partial states are
+				// also no good once the load has failed
+				
+				isPartiallyLoaded = false;
 				
 				SwingUtilities.invokeLater(new Runnable() {
 					@Override
@@ -623,8 +1258,9 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 				});
 			}
 
-			// Re-render loading state - if not expired
-			if (!expired) {
+			// Re-render loading state - if not expired, and only if it visibly changed
+			boolean shouldRepaint = loadProgress.shouldRepaint(state, getLoadBarWidth());
+			if (!expired && shouldRepaint) {
 				FrameGraphics.invalidateArea(new Rectangle(getX(), getY(), getWidth(), getHeight()));
 				FrameGraphics.requestRefresh(true);
 			}
@@ -639,50 +1275,114 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 			while (true) { // keep proccessing tasks
 				
 				HDWEvent event = null;
+				CompletableFuture<Float> future = null;
 
 				synchronized(queuedEvents) {
-					if (queuedEvents.isEmpty()) return;
+					if (queuedEvents.isEmpty()) {
+						isDispatching = false;
+						return;
+					}
 					event = queuedEvents.remove();
+					future = queuedEventFutures.remove(event);
 				}
 
-				if (event == HDWEvent.Load) {
-					doLoad();
-				} else if (event == HDWEvent.Save) {
-					doSave(); // does not change state
-				} else if (event == HDWEvent.Unload){
-					doUnload();
-				} else {
-					assert(event == HDWEvent.UnloadTMP);
-					doTempUnload();
+				Object phaseEvent = WidgetFlightRecorder.getInstance().beginHeavyDutyPhase();
+				
+				try {
+					if (event == HDWEvent.Load) {
+						doLoad();
+					} else if (event == HDWEvent.Save) {
+						doSave(); // does not change state
+					} else if (event == HDWEvent.Unload){
+						doUnload();
+					} else if (event == HDWEvent.CompactJournal) {
+						doCompactJournal();
+					} else {
+						assert(event == HDWEvent.UnloadTMP);
+						doTempUnload();
+					}
+				} catch (RuntimeException e) {
+					// Keep draining: the thread is shared and the mailbox must not stall
+					e.printStackTrace();
+					future.completeExceptionally(e);
+					continue;
+				} catch (Error e) {
+					// Let it propagate - but hand back the mailbox first, otherwise this widget
+					// never dispatches again and the futures of queued events never complete
+					future.completeExceptionally(e);
+					releaseMailbox();
+					throw e;
+				} finally {
+					WidgetFlightRecorder.getInstance().commitHeavyDutyPhase(phaseEvent,
+							HeavyDutyInteractiveWidget.this, event.name(), loadState.get());
 				}
 				
+				future.complete(loadState.get());
+				
 				
 			}
 		}
 		
+		/**
+		 * Gives up draining the mailbox. If events are still queued then a new drain is submitted.
+		 */
+		private void releaseMailbox() {
+			synchronized(queuedEvents) {
+				isDispatching = !queuedEvents.isEmpty();
+				if (isDispatching) {
+					HeavyDutyWidgetExecutor.getExecutor().execute(eventDispatcher);
+				}
+			}
+		}
+		
 		private void doLoad() {
 
 			// Check that not already loaded.
 		//	if (loadState == LOAD_STATE_COMPLETED ||
 		//			loadState == LOAD_STATE_FAILED) return;
-			if (loadState == LOAD_STATE_COMPLETED) return;
+			if (loadState.get() == LOAD_STATE_COMPLETED) return;
 			
 			// Only load if in view
 			if (!isFloating() && getParentFrame() != DisplayIO.getCurrentFrame())
 				return;
 			
-			// Reset flag.
-			hasCancelledBeenRequested = false;
+			// Cancelled before the load began. A new token is issued when the load is requested
+			LoadCancellationToken token = loadToken;
+			if (token.isCancelled()) return;
+			activeLoadToken = token;
+			
+			// Expiries and temporary unloads both leave the state expired: tell them apart for the statistics
+			boolean wasUnloaded = loadState.isExpired();
+			boolean wasExpired = wasUnloaded && !wasTempUnloaded;
+			boolean wasTempUnload = wasUnloaded && wasTempUnloaded;
+			
+			// Anything held from an earlier attempt is re-acquired by this load
+			releaseSharedLoads();
+			
+			// Restore instantly if the data retained on expiry has not been collected
+			Object retained = WidgetCacheManager.reclaimWidgetData(HeavyDutyInteractiveWidget.this);
+			if (retained != null && restoreRetained(retained)) {
+				activeLoadToken = null;
+				WidgetStatistics.getInstance().loadFinished(HeavyDutyInteractiveWidget.this, 0, false, wasExpired, wasTempUnload);
+				return;
+			}
 			
 			// Set the load state as loading... 0%
+			loadProgress.loadStarted();
 			setLoadState(0.0f, false);
 		
 			float finalState = LOAD_STATE_FAILED;
+			long loadStartTime = System.currentTimeMillis();
 			
+			token.loadStarted(Thread.currentThread(), isLoadInterruptible());
 			try {
 				finalState = loadWidgetData();
 			} catch (Exception e) {
-				e.printStackTrace();
+				if (!token.isCancelled()) e.printStackTrace(); // Expected when interrupted
+			} finally {
+				closeMappedFiles();
+				token.loadFinished();
+				activeLoadToken = null;
 			}
 			
 			// Safety check for return state
@@ -697,6 +1397,17 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 				finalState = LOAD_STATE_FAILED;
 			}
 			
+			if (token.isCancelled() && finalState != LOAD_STATE_COMPLETED) {
+				HeavyDutyLoadScheduler.getInstance().loadAbandoned(token.getReason(), 
+						System.currentTimeMillis() - loadStartTime);
+				if (finalState == LOAD_STATE_FAILED) finalState = LOAD_STATE_INCOMPLETED; // Resume when shown again
+			}
+			
+			if (finalState == LOAD_STATE_COMPLETED) dropLoadCheckpoint(); // In case saved and not taken
+			
+			WidgetStatistics.getInstance().loadFinished(HeavyDutyInteractiveWidget.this, 
+					System.currentTimeMillis() - loadStartTime, finalState == LOAD_STATE_COMPLETED, wasExpired, wasTempUnload);
+			
 			// Set the final state
 			setLoadState(finalState, false); 
 			
@@ -706,27 +1417,105 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 
 			// Only save if still belongs to a frame
 			if (!isFloating() && getParentFrame() != null) {
+				long saveStartTime = System.currentTimeMillis();
 				saveWidgetData();
+				WidgetStatistics.getInstance().saveFinished(HeavyDutyInteractiveWidget.this, 
+						System.currentTimeMillis() - saveStartTime);
+				
+				// Committed by the HeavyDutySaveCoordinator. Compact after the save point has been released
+				if (journal != null && journal.needsCompaction()) {
+					runEventLater(HDWEvent.CompactJournal);
+				}
 			}
 
 		}
 		
+		private void doCompactJournal() {
+			// A snapshot is of the loaded state: if unloaded since the save it would lose the deltas
+			if (journal == null || loadState.get() != LOAD_STATE_COMPLETED) return;
+			
+			try {
+				journal.compact();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
 		private void doUnload() {
 
 			// Reset the load state
 			setLoadState(LOAD_STATE_PENDING, true); 
+			wasTempUnloaded = false;
+			
+			// Hand the data to the retention tier if the widget can be restored from it
+			try {
+				Object retained = retainWidgetData();
+				if (retained != null) WidgetCacheManager.retainWidgetData(HeavyDutyInteractiveWidget.this, retained);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
 			
 			// Get rid of memory
 			unloadWidgetData();
+			releaseSharedLoads();
+			dropLoadCheckpoint();
+			
+			if (journal != null) journal.close();
 			
 		}
 		
 		private void doTempUnload() {
 			// Reset the load state
 			setLoadState(LOAD_STATE_PENDING, true); 
+			wasTempUnloaded = true;
 			
 			// Get rid of memory
 			tempUnloadWidgetData();
+			releaseSharedLoads();
+			dropLoadCheckpoint();
+			
+			if (journal != null) journal.close();
+		}
+		
+		/**
+		 * @return
+		 * 		True if the widget has been restored - and is now loaded.
+		 */
+		private boolean restoreRetained(Object retained) {
+			
+			setLoadState(0.0f, false);
+			
+			boolean isRestored = false;
+			try {
+				isRestored = restoreWidgetData(retained);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			
+			if (isRestored) {
+				dropLoadCheckpoint();
+				setLoadState(LOAD_STATE_COMPLETED, false);
+			}
+			
+			return isRestored;
+		}
+		
+		private void closeMappedFiles() {
+			for (MappedFileReader reader : openMappedFiles) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			openMappedFiles.clear();
+		}
+		
+		private void releaseSharedLoads() {
+			for (SharedLoadRegistry.Entry entry : heldSharedLoads) {
+				SharedLoadRegistry.getInstance().release(entry);
+			}
+			heldSharedLoads.clear();
 		}
 		
 		
@@ -737,7 +1526,8 @@ public abstract class HeavyDutyInteractiveWidget extends InteractiveWidget imple
 		Save,
 		Load,
 		Unload,
-		UnloadTMP
+		UnloadTMP,
+		CompactJournal
 	}
 	
 	
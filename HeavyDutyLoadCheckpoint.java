@@ -0,0 +1,95 @@
+package org.expeditee.items.widgets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The progress a heavy duty widget saved when its load was cancelled - so that its next
+ * load can carry on from there rather than starting again.
+ *
+ * A checkpoint is dropped if it is not resumed from within its time to live. The default
+ * time to live can be set with the {@value #TIME_TO_LIVE_PROPERTY} system property, in milliseconds
+ * (60 seconds by default). Checkpoints that are Closeable are closed when dropped.
+ *
+ * @see HeavyDutyInteractiveWidget#saveLoadCheckpoint(Object)
+ * @see HeavyDutyInteractiveWidget#takeLoadCheckpoint()
+ */
+final class HeavyDutyLoadCheckpoint {
+
+	public static final String TIME_TO_LIVE_PROPERTY = "expeditee.widgets.hdw.checkpointttl";
+
+	static final long DEFAULT_TIME_TO_LIVE = Math.max(0, Long.getLong(TIME_TO_LIVE_PROPERTY, 60000));
+
+	private static ScheduledExecutorService _expirer = null;
+
+	private final Object state;
+
+	private final float progress;
+
+	HeavyDutyLoadCheckpoint(Object state, float progress) {
+		assert(state != null);
+		this.state = state;
+		this.progress = progress;
+	}
+
+	/**
+	 * @return
+	 * 		The state saved by the widget. Never null.
+	 */
+	Object getState() {
+		return state;
+	}
+
+	/**
+	 * @return
+	 * 		The overall load progress when saved. Negative if indeterminant.
+	 */
+	float getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Releases the saved state - the checkpoint will not be resumed from.
+	 */
+	void dispose() {
+		if (state instanceof Closeable) {
+			try {
+				((Closeable)state).close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Runs the given task once the time to live has passed.
+	 *
+	 * @param expiry
+	 * 		Drops the checkpoint if it is still held.
+	 *
+	 * @param timeToLive
+	 * 		In milliseconds.
+	 */
+	static void scheduleExpiry(Runnable expiry, long timeToLive) {
+		getExpirer().schedule(expiry, Math.max(0, timeToLive), TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService getExpirer() {
+		if (_expirer == null) {
+			_expirer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "HDW-Checkpoint-Expirer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return _expirer;
+	}
+
+}
@@ -0,0 +1,309 @@
+package org.expeditee.items.widgets;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Timer;
+
+import org.expeditee.gui.FrameGraphics;
+
+/**
+ * The progress model behind the load screen of a heavy duty widget.
+ *
+ * A load can be split into weighted stages (e.g. read, parse, index) - the widget reports
+ * the progress of the current stage and the model maps it to the overall progress. The time
+ * left is estimated from the rate of the overall progress so far.
+ *
+ * Progress is reported far more often than it can be seen, so repaints are rate limited:
+ * a progress update only repaints if the load bar has moved by at least a pixel (or the status
+ * text has changed), and at most {@value #REPAINT_RATE_PROPERTY} times a second (30 by default).
+ * Updates held back by the rate limit are painted by a single trailing repaint.
+ *
+ * Updated by the widgets event dispatcher only - the repaint bookkeeping is shared with the
+ * trailing repaint, which runs on the swing thread.
+ */
+final class HeavyDutyLoadProgress {
+
+	public static final String REPAINT_RATE_PROPERTY = "expeditee.widgets.hdw.progresshz";
+
+	private static final long MIN_REPAINT_INTERVAL_MS =
+		1000L / Math.max(1, Integer.getInteger(REPAINT_RATE_PROPERTY, 30));
+
+	/** Estimates are too wild before this much progress or time. */
+	private static final float MIN_PROGRESS_FOR_ESTIMATE = 0.02f;
+	private static final long MIN_TIME_FOR_ESTIMATE_MS = 500;
+
+	private final HeavyDutyInteractiveWidget _widget;
+
+	/** The start of each stage as overall progress. Null if the load is not staged. */
+	private float[] _stageStarts = null;
+	private float[] _stageWeights = null;
+	private int _stage = 0;
+
+	private long _loadStartTime = 0;
+	private float _resumedProgress = 0.0f;
+	private long _estimatedTimeLeft = -1;
+
+	private volatile String _statusText = null;
+
+	// What the status text shows - so that it is only rebuilt when it changes
+	private int _statusStage = -1;
+	private long _statusSeconds = -1;
+
+	private float _paintedState = HeavyDutyInteractiveWidget.LOAD_STATE_PENDING; // guarded by this
+	private int _paintedBarPixels = -1; // guarded by this
+	private String _paintedStatusText = null; // guarded by this
+	private long _lastRepaintTime = 0; // guarded by this
+
+	// The latest update held back by the rate limit - recorded as painted by the trailing repaint
+	private boolean _isHeld = false; // guarded by this
+	private float _heldState; // guarded by this
+	private int _heldBarPixels; // guarded by this
+	private String _heldStatusText; // guarded by this
+
+	private Timer _trailingRepaint = null;
+
+	HeavyDutyLoadProgress(HeavyDutyInteractiveWidget widget) {
+		assert(widget != null);
+		_widget = widget;
+	}
+
+	/**
+	 * Resets the model for a new load. The load is not staged until stages are set.
+	 */
+	void loadStarted() {
+		_stageStarts = null;
+		_stageWeights = null;
+		_stage = 0;
+		_loadStartTime = System.currentTimeMillis();
+		_resumedProgress = 0.0f;
+		_estimatedTimeLeft = -1;
+		_statusText = null;
+		_statusStage = -1;
+		_statusSeconds = -1;
+	}
+
+	/**
+	 * Notes that the load carried on from where an earlier load got to - so that the
+	 * progress made by the earlier load is not counted in the estimate.
+	 *
+	 * @param progress
+	 * 		The overall progress that the load carried on from.
+	 */
+	void resumedFrom(float progress) {
+		_resumedProgress = Math.max(0.0f, progress);
+		_loadStartTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param weights
+	 * 		The relative weight of each stage. Must not be empty or negative.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the weights are empty, negative or sum to zero.
+	 */
+	void setStages(float[] weights) {
+		if (weights == null || weights.length == 0)
+			throw new IllegalArgumentException("There must be at least one stage");
+
+		float total = 0.0f;
+		for (float w : weights) {
+			if (w < 0.0f) throw new IllegalArgumentException("Stage weights must not be negative");
+			total += w;
+		}
+		if (total <= 0.0f) throw new IllegalArgumentException("Stage weights must not sum to zero");
+
+		_stageStarts = new float[weights.length];
+		_stageWeights = new float[weights.length];
+
+		float start = 0.0f;
+		for (int i = 0; i < weights.length; i++) {
+			_stageStarts[i] = start;
+			_stageWeights[i] = weights[i] / total;
+			start += _stageWeights[i];
+		}
+
+		_stage = 0;
+	}
+
+	/**
+	 * @param stage
+	 * 		The stage index.
+	 *
+	 * @throws IllegalStateException
+	 * 		If the load is not staged.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 * 		If there is no such stage.
+	 */
+	void beginStage(int stage) {
+		if (_stageStarts == null) throw new IllegalStateException("Load stages have not been set");
+		if (stage < 0 || stage >= _stageStarts.length)
+			throw new IndexOutOfBoundsException("No such load stage: " + stage);
+		_stage = stage;
+	}
+
+	/**
+	 * @return
+	 * 		The overall progress at the start of the current stage. Zero if the load is not staged.
+	 */
+	float getStageStart() {
+		return (_stageStarts == null) ? 0.0f : _stageStarts[_stage];
+	}
+
+	/**
+	 * Maps the progress of the current stage to the overall progress, and updates the estimate.
+	 *
+	 * @param percent
+	 * 		The progress of the current stage. Negative if indeterminant.
+	 *
+	 * @return
+	 * 		The overall progress. Negative if indeterminant.
+	 */
+	float toOverallProgress(float percent) {
+
+		float overall = percent;
+		if (percent >= 0.0f && _stageStarts != null) {
+			overall = Math.min(1.0f, _stageStarts[_stage] + (_stageWeights[_stage] * percent));
+		}
+
+		updateEstimate(overall);
+
+		return overall;
+	}
+
+	/**
+	 * @return
+	 * 		The estimated time left of the load in milliseconds. Negative if unknown.
+	 */
+	long getEstimatedTimeLeft() {
+		return _estimatedTimeLeft;
+	}
+
+	/**
+	 * @return
+	 * 		The stage and time left to show under the load message. Null if nothing to show.
+	 */
+	String getStatusText() {
+		return _statusText;
+	}
+
+	private void updateEstimate(float overall) {
+
+		long elapsed = System.currentTimeMillis() - _loadStartTime;
+
+		float progressMade = overall - _resumedProgress;
+
+		if (progressMade < MIN_PROGRESS_FOR_ESTIMATE || elapsed < MIN_TIME_FOR_ESTIMATE_MS) {
+			_estimatedTimeLeft = -1;
+		} else {
+			_estimatedTimeLeft = (long)(elapsed * ((1.0f - overall) / progressMade));
+		}
+
+		int stage = (_stageStarts != null && _stageStarts.length > 1) ? _stage : -1;
+
+		// Shown in whole seconds under a minute, otherwise in whole minutes
+		long seconds = -1;
+		if (_estimatedTimeLeft >= 0) {
+			seconds = (_estimatedTimeLeft + 999) / 1000;
+			if (seconds >= 60) seconds = ((seconds + 59) / 60) * 60;
+		}
+
+		// Progress is reported far more often than the text changes
+		if (stage == _statusStage && seconds == _statusSeconds) return;
+		_statusStage = stage;
+		_statusSeconds = seconds;
+
+		StringBuilder status = new StringBuilder();
+
+		if (stage >= 0) {
+			status.append('(').append(stage + 1).append('/').append(_stageStarts.length).append(')');
+		}
+
+		if (seconds >= 0) {
+			if (status.length() > 0) status.append(' ');
+			if (seconds < 60) status.append("about ").append(seconds).append("s left");
+			else status.append("about ").append(seconds / 60).append(" min left");
+		}
+
+		_statusText = (status.length() == 0) ? null : status.toString(); // The load screen layout is cached by it
+	}
+
+	/**
+	 * Decides whether a transition to the given state needs a repaint. Transitions to or from
+	 * non-loading states always do. Progress only does if it shows and the rate limit allows -
+	 * otherwise a trailing repaint is scheduled.
+	 *
+	 * @param state
+	 * 		The new load state.
+	 *
+	 * @param barWidth
+	 * 		The width of the load bar in pixels.
+	 *
+	 * @return
+	 * 		True if should repaint now.
+	 */
+	synchronized boolean shouldRepaint(float state, int barWidth) {
+
+		boolean wasLoading = _paintedState <= 1.0f;
+		boolean isLoading = state <= 1.0f;
+
+		String statusText = _statusText;
+		int barPixels = (state < 0.0f) ? -1 : (int)(barWidth * state);
+
+		if (wasLoading && isLoading) {
+
+			boolean isVisibleChange = barPixels != _paintedBarPixels
+				|| (_paintedBarPixels < 0) != (state < 0.0f)
+				|| (statusText == null ? _paintedStatusText != null : !statusText.equals(_paintedStatusText));
+
+			if (!isVisibleChange) return false;
+
+			long sinceLastRepaint = System.currentTimeMillis() - _lastRepaintTime;
+			if (sinceLastRepaint < MIN_REPAINT_INTERVAL_MS) {
+				_isHeld = true;
+				_heldState = state;
+				_heldBarPixels = barPixels;
+				_heldStatusText = statusText;
+				scheduleTrailingRepaint(MIN_REPAINT_INTERVAL_MS - sinceLastRepaint);
+				return false;
+			}
+		}
+
+		_isHeld = false; // Superseded
+		_paintedState = state;
+		_paintedBarPixels = barPixels;
+		_paintedStatusText = statusText;
+		_lastRepaintTime = System.currentTimeMillis();
+
+		return true;
+	}
+
+	private synchronized void scheduleTrailingRepaint(long delay) {
+
+		if (_trailingRepaint == null) {
+			_trailingRepaint = new Timer((int)delay, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					synchronized(HeavyDutyLoadProgress.this) {
+						if (!_isHeld) return; // Already painted by a later update
+						_isHeld = false;
+						_paintedState = _heldState;
+						_paintedBarPixels = _heldBarPixels;
+						_paintedStatusText = _heldStatusText;
+						_lastRepaintTime = System.currentTimeMillis();
+					}
+					FrameGraphics.invalidateArea(_widget.getBounds());
+					FrameGraphics.requestRefresh(true);
+				}
+			});
+			_trailingRepaint.setRepeats(false);
+		}
+
+		if (!_trailingRepaint.isRunning()) {
+			_trailingRepaint.setInitialDelay((int)delay);
+			_trailingRepaint.start();
+		}
+	}
+
+}
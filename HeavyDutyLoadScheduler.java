@@ -0,0 +1,624 @@
+package org.expeditee.items.widgets;
+
+import java.awt.Rectangle;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.expeditee.gui.Browser;
+import org.expeditee.gui.DisplayIO;
+
+/**
+ * Schedules the loading of heavy duty widgets.
+ *
+ * Rather than loading in the order that widgets were queued, the next widget to
+ * load is chosen when a load can start - at which point all pending widgets whose
+ * load delay has passed are ranked by:
+ * <ol>
+ * 		<li>Whether they are on screen
+ * 		<li>Their visible area, scaled down by their distance from the center of the viewport
+ * </ol>
+ * Thus the widgets the user is looking at are loaded first - even when many heavy duty
+ * widgets are queued.
+ *
+ * Widgets that are no longer on the current frame are dropped from the queue (they are
+ * re-queued when shown again), and widgets that are loading when the user leaves their frame
+ * are asked to cancel.
+ *
+ * Swing state is only read on the swing thread: the viewport and the bounds of pending widgets
+ * are snapshotted when widgets are queued and when the frame changes, and ranked from the snapshot.
+ *
+ * Loads run concurrently in load lanes, one lane per {@link HeavyDutyInteractiveWidget.LoadClass}.
+ * By default the CPU bound lane can run as many loads as there are cores, and the I/O bound lane
+ * twice as many. These can be set with the {@value #CPU_LANES_PROPERTY} and {@value #IO_LANES_PROPERTY}
+ * system properties. A slow widget only holds up proceeding widgets once its lane is full.
+ *
+ * Load delays adapt to how fast the user is navigating: while the user flicks through frames a
+ * widgets load delay (see {@link HeavyDutyInteractiveWidget#getLoadDelayTime()}) is stretched -
+ * up to {@value #MAX_DELAY_SCALE} times - so that frames the user is only passing through do not start
+ * loading, and while the user navigates slowly it is shrunk - down to {@value #MIN_DELAY_SCALE} times.
+ * The pace is the smoothed time between frame changes. Once the user has stayed on a frame for longer
+ * than that, they have settled on it: delays are no longer stretched.
+ * Setting the {@value #ADAPTIVE_DELAY_PROPERTY} system property to false uses the fixed delays.
+ *
+ * The work thrown away by cancelled loads is recorded per {@link LoadCancellationToken.Reason} -
+ * e.g. how much load time is wasted by users navigating away before widgets finish loading.
+ */
+public final class HeavyDutyLoadScheduler {
+
+	public static final String CPU_LANES_PROPERTY = "expeditee.widgets.hdw.cpulanes";
+
+	public static final String IO_LANES_PROPERTY = "expeditee.widgets.hdw.iolanes";
+
+	public static final String ADAPTIVE_DELAY_PROPERTY = "expeditee.widgets.hdw.adaptivedelay";
+
+	private static final boolean IS_DELAY_ADAPTIVE =
+		Boolean.parseBoolean(System.getProperty(ADAPTIVE_DELAY_PROPERTY, "true"));
+
+	/** The time between frame changes at which load delays are used as is. */
+	private static final long REFERENCE_NAVIGATION_INTERVAL_MS = 1000;
+
+	static final double MIN_DELAY_SCALE = 0.25;
+	static final double MAX_DELAY_SCALE = 3.0;
+
+	/** How much the latest frame change counts towards the navigation pace. */
+	private static final double NAVIGATION_SMOOTHING = 0.3;
+
+	private static final int CORE_COUNT = Runtime.getRuntime().availableProcessors();
+
+	/** The amount of loads that may run at once in the CPU bound lane. */
+	static final int CPU_LANE_WIDTH = Math.max(1, Integer.getInteger(CPU_LANES_PROPERTY, CORE_COUNT));
+
+	/** The amount of loads that may run at once in the I/O bound lane. */
+	static final int IO_LANE_WIDTH = Math.max(1, Integer.getInteger(IO_LANES_PROPERTY, CORE_COUNT * 2));
+
+	private static HeavyDutyLoadScheduler _instance = new HeavyDutyLoadScheduler();
+
+	/** Widgets waiting to load. */
+	private final Map<HeavyDutyInteractiveWidget, PendingLoad> pendingLoads =
+		new LinkedHashMap<HeavyDutyInteractiveWidget, PendingLoad>();
+
+	/** The widgets currently loading. */
+	private final Map<HeavyDutyInteractiveWidget, LoadLane> activeLoads =
+		new HashMap<HeavyDutyInteractiveWidget, LoadLane>();
+
+	private final Map<HeavyDutyInteractiveWidget.LoadClass, LoadLane> lanes =
+		new EnumMap<HeavyDutyInteractiveWidget.LoadClass, LoadLane>(HeavyDutyInteractiveWidget.LoadClass.class);
+
+	private Thread schedulerThread = null;
+
+	/** The visible part of the frame as of the last queue or frame change. Null if there is no browser yet. */
+	private Rectangle viewport = null;
+
+	// Navigation pace
+	private long lastFrameChangeTime = 0;
+	private double averageNavigationInterval = REFERENCE_NAVIGATION_INTERVAL_MS;
+
+	private long droppedStaleCount = 0;
+
+	// Wasted work metrics - indexed by LoadCancellationToken.Reason ordinal
+	private final long[] abandonedCounts = new long[LoadCancellationToken.Reason.values().length];
+	private final long[] wastedLoadTimes = new long[LoadCancellationToken.Reason.values().length];
+
+	private HeavyDutyLoadScheduler() {
+		lanes.put(HeavyDutyInteractiveWidget.LoadClass.CPUBound, new LoadLane(CPU_LANE_WIDTH));
+		lanes.put(HeavyDutyInteractiveWidget.LoadClass.IOBound, new LoadLane(IO_LANE_WIDTH));
+	}
+
+	public static HeavyDutyLoadScheduler getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * Queues a widget for loading. If already queued, the earliest start time is kept.
+	 * Invoked on the swing thread.
+	 *
+	 * @param widget
+	 * 		The widget to load. Must not be null.
+	 *
+	 * @param delay
+	 * 		The time in milliseconds to wait before the widget may start loading - before
+	 * 		adapting to the navigation pace.
+	 */
+	public void queue(HeavyDutyInteractiveWidget widget, int delay) {
+		if (widget == null) throw new NullPointerException("widget");
+
+		Rectangle currentViewport = getViewport();
+		long now = System.currentTimeMillis();
+		PendingLoad pending = new PendingLoad(now, Math.max(0, delay));
+		pending.place(widget);
+
+		synchronized(this) {
+			viewport = currentViewport;
+
+			PendingLoad existing = pendingLoads.get(widget);
+			if (existing == null || pending.getReadyTime(now) < existing.getReadyTime(now)) {
+				pendingLoads.put(widget, pending);
+			} else {
+				existing.place(pending);
+			}
+
+			if (schedulerThread == null) {
+				schedulerThread = new SchedulerThread();
+				schedulerThread.start();
+			}
+
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Removes a widget from the queue - or cancels its load if it is currently loading.
+	 *
+	 * @param widget
+	 * 		The widget to cancel. Must not be null.
+	 */
+	public void cancel(HeavyDutyInteractiveWidget widget) {
+		cancel(widget, LoadCancellationToken.Reason.Requested);
+	}
+
+	/**
+	 * @see #cancel(HeavyDutyInteractiveWidget)
+	 *
+	 * @param reason
+	 * 		Why the load is cancelled. Must not be null.
+	 */
+	public void cancel(HeavyDutyInteractiveWidget widget, LoadCancellationToken.Reason reason) {
+		if (widget == null) throw new NullPointerException("widget");
+		if (reason == null) throw new NullPointerException("reason");
+
+		boolean isLoading;
+		synchronized(this) {
+			pendingLoads.remove(widget);
+			isLoading = activeLoads.containsKey(widget);
+		}
+
+		if (isLoading) widget.cancelLoad(reason);
+	}
+
+	/**
+	 * Invoked on the swing thread when the frame changes. Drops the pending loads and cancels the
+	 * active loads of widgets whose frame the user has left, re-snapshots the viewport and the bounds
+	 * of the widgets still pending, and updates the navigation pace.
+	 */
+	void frameChanged() {
+
+		List<HeavyDutyInteractiveWidget> toCancel = new LinkedList<HeavyDutyInteractiveWidget>();
+		Rectangle currentViewport = getViewport();
+
+		synchronized(this) {
+
+			viewport = currentViewport;
+
+			long now = System.currentTimeMillis();
+			if (lastFrameChangeTime > 0) {
+				long interval = now - lastFrameChangeTime;
+				averageNavigationInterval = (NAVIGATION_SMOOTHING * interval)
+					+ ((1.0 - NAVIGATION_SMOOTHING) * averageNavigationInterval);
+			}
+			lastFrameChangeTime = now;
+
+			// Drop stale requests now rather than when next ranked: they will be re-queued if shown again
+			Iterator<Map.Entry<HeavyDutyInteractiveWidget, PendingLoad>> itor = pendingLoads.entrySet().iterator();
+			while (itor.hasNext()) {
+				Map.Entry<HeavyDutyInteractiveWidget, PendingLoad> entry = itor.next();
+				if (isOnCurrentFrame(entry.getKey())) {
+					entry.getValue().place(entry.getKey());
+				} else {
+					itor.remove();
+					droppedStaleCount++;
+				}
+			}
+
+			for (HeavyDutyInteractiveWidget widget : activeLoads.keySet()) {
+				if (!isOnCurrentFrame(widget)) toCancel.add(widget);
+			}
+			notifyAll();
+		}
+
+		for (HeavyDutyInteractiveWidget widget : toCancel) {
+			widget.cancelLoad(LoadCancellationToken.Reason.Navigation);
+		}
+	}
+
+	/**
+	 * Invoked by a widget once its load has returned without completing because it was cancelled.
+	 *
+	 * @param reason
+	 * 		Why the load was cancelled.
+	 *
+	 * @param loadTime
+	 * 		How long the load ran for in milliseconds.
+	 */
+	synchronized void loadAbandoned(LoadCancellationToken.Reason reason, long loadTime) {
+		abandonedCounts[reason.ordinal()]++;
+		wastedLoadTimes[reason.ordinal()] += Math.max(0, loadTime);
+	}
+
+	/**
+	 * @return
+	 * 		The amount of loads that were cancelled part way for the given reason.
+	 */
+	public synchronized long getAbandonedLoadCount(LoadCancellationToken.Reason reason) {
+		return abandonedCounts[reason.ordinal()];
+	}
+
+	/**
+	 * @return
+	 * 		The total time in milliseconds spent on loads that were cancelled part way for the given reason.
+	 */
+	public synchronized long getWastedLoadTime(LoadCancellationToken.Reason reason) {
+		return wastedLoadTimes[reason.ordinal()];
+	}
+
+	/**
+	 * @return
+	 * 		The amount of queued loads dropped because the user left their frame before they started.
+	 */
+	public synchronized long getDroppedStaleCount() {
+		return droppedStaleCount;
+	}
+
+	/**
+	 * @param delay
+	 * 		A widgets load delay in milliseconds.
+	 *
+	 * @return
+	 * 		The delay in milliseconds adapted to the current navigation pace.
+	 */
+	public synchronized long getAdaptedLoadDelay(int delay) {
+		return adaptDelay(Math.max(0, delay), System.currentTimeMillis());
+	}
+
+	/**
+	 * Must hold lock.
+	 */
+	private long adaptDelay(int delay, long now) {
+		if (!IS_DELAY_ADAPTIVE || lastFrameChangeTime == 0) return delay;
+		return adaptDelay(delay, averageNavigationInterval, now - lastFrameChangeTime);
+	}
+
+	/**
+	 * Must hold lock.
+	 *
+	 * @return
+	 * 		The time (ms) at which the user will have settled on the current frame. Zero if no frame yet.
+	 */
+	private long getSettleTime() {
+		if (lastFrameChangeTime == 0) return 0;
+		return lastFrameChangeTime + (long)Math.ceil(averageNavigationInterval) + 1;
+	}
+
+	/**
+	 * @param delay
+	 * 		A widgets load delay in milliseconds.
+	 *
+	 * @param averageNavigationInterval
+	 * 		The smoothed time between frame changes in milliseconds.
+	 *
+	 * @param dwellTime
+	 * 		How long the user has been on the current frame in milliseconds.
+	 *
+	 * @return
+	 * 		The delay adapted to the navigation pace.
+	 */
+	static long adaptDelay(int delay, double averageNavigationInterval, long dwellTime) {
+		return (long)(delay * getDelayScale(averageNavigationInterval, dwellTime));
+	}
+
+	/**
+	 * Once the user stays on a frame for longer than they usually do, they have settled on it -
+	 * so delays are no longer stretched. Only whether the user has settled counts, not for how
+	 * long: the delay of a widget queued on arrival runs over the dwell time, so a scale that kept
+	 * shrinking with it would cancel the delay out.
+	 *
+	 * @param averageNavigationInterval
+	 * 		The smoothed time between frame changes in milliseconds.
+	 *
+	 * @param dwellTime
+	 * 		How long the user has been on the current frame in milliseconds.
+	 *
+	 * @return
+	 * 		How much to scale load delays by.
+	 */
+	static double getDelayScale(double averageNavigationInterval, long dwellTime) {
+		double scale = getDelayScale(averageNavigationInterval);
+		return (dwellTime > averageNavigationInterval) ? Math.min(1.0, scale) : scale;
+	}
+
+	/**
+	 * @param averageNavigationInterval
+	 * 		The smoothed time between frame changes in milliseconds.
+	 *
+	 * @return
+	 * 		How much to scale load delays by at the given navigation pace.
+	 */
+	static double getDelayScale(double averageNavigationInterval) {
+		double scale = REFERENCE_NAVIGATION_INTERVAL_MS / Math.max(1.0, averageNavigationInterval);
+		return Math.max(MIN_DELAY_SCALE, Math.min(MAX_DELAY_SCALE, scale));
+	}
+
+	/**
+	 * @return
+	 * 		The amount of widgets waiting to load.
+	 */
+	public synchronized int getPendingCount() {
+		return pendingLoads.size();
+	}
+
+	/**
+	 * @return
+	 * 		The amount of loads that may run at once in the given lane.
+	 */
+	public int getLaneWidth(HeavyDutyInteractiveWidget.LoadClass loadClass) {
+		return lanes.get(loadClass).width;
+	}
+
+	/**
+	 * @return
+	 * 		The amount of widgets that are waiting to load in the given lane.
+	 */
+	public synchronized int getQueueDepth(HeavyDutyInteractiveWidget.LoadClass loadClass) {
+		int depth = 0;
+		for (HeavyDutyInteractiveWidget widget : pendingLoads.keySet()) {
+			if (widget.getLoadClass() == loadClass) depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * @return
+	 * 		The amount of widgets loading in the given lane.
+	 */
+	public synchronized int getActiveCount(HeavyDutyInteractiveWidget.LoadClass loadClass) {
+		return lanes.get(loadClass).active;
+	}
+
+	/**
+	 * The wait time of a load is how long it waited for its lane after its load delay had passed.
+	 *
+	 * @return
+	 * 		The average wait time in milliseconds of the loads started in the given lane.
+	 */
+	public synchronized long getAverageWaitTime(HeavyDutyInteractiveWidget.LoadClass loadClass) {
+		LoadLane lane = lanes.get(loadClass);
+		return (lane.startedCount == 0) ? 0 : lane.totalWaitTime / lane.startedCount;
+	}
+
+	/**
+	 * @see #getAverageWaitTime(HeavyDutyInteractiveWidget.LoadClass)
+	 *
+	 * @return
+	 * 		The longest wait time in milliseconds of the loads started in the given lane.
+	 */
+	public synchronized long getMaxWaitTime(HeavyDutyInteractiveWidget.LoadClass loadClass) {
+		return lanes.get(loadClass).maxWaitTime;
+	}
+
+	/**
+	 * Swing thread only.
+	 */
+	private static boolean isOnCurrentFrame(HeavyDutyInteractiveWidget widget) {
+		return widget.isFloating() || widget.getParentFrame() == DisplayIO.getCurrentFrame();
+	}
+
+	/**
+	 * Swing thread only.
+	 * 
+	 * @return
+	 * 		The visible part of the frame. Null if there is no browser yet.
+	 */
+	private static Rectangle getViewport() {
+		if (Browser._theBrowser == null) return null;
+		return new Rectangle(0, 0,
+				Browser._theBrowser.getContentPane().getWidth(),
+				Browser._theBrowser.getContentPane().getHeight());
+	}
+
+	/**
+	 * Starts the best widget that is ready to load and has room in its lane - ranked from the
+	 * snapshot taken on the swing thread. Must hold lock.
+	 *
+	 * @return
+	 * 		The time (ms) that the next pending widget may start loading. Zero if a widget was started.
+	 * 		Long.MAX_VALUE if must wait until notified.
+	 */
+	private long startNext() {
+
+		long now = System.currentTimeMillis();
+		long nextReadyTime = Long.MAX_VALUE;
+
+		// Ready times shorten once the user settles on the frame: re-rank then
+		long settleTime = IS_DELAY_ADAPTIVE ? getSettleTime() : 0;
+
+		HeavyDutyInteractiveWidget best = null;
+		LoadLane bestLane = null;
+		boolean bestOnScreen = false;
+		double bestScore = -1.0;
+
+		Iterator<Map.Entry<HeavyDutyInteractiveWidget, PendingLoad>> itor = pendingLoads.entrySet().iterator();
+		while (itor.hasNext()) {
+
+			Map.Entry<HeavyDutyInteractiveWidget, PendingLoad> entry = itor.next();
+			HeavyDutyInteractiveWidget widget = entry.getKey();
+			PendingLoad pending = entry.getValue();
+
+			// Widgets on frames the user has left were dropped by frameChanged
+			long readyTime = pending.getReadyTime(now);
+			if (readyTime > now) {
+				nextReadyTime = Math.min(nextReadyTime, readyTime);
+				if (settleTime > now) nextReadyTime = Math.min(nextReadyTime, settleTime);
+				continue;
+			}
+
+			// Wait for the current load of the widget to finish, or for room in the lane
+			LoadLane lane = lanes.get(widget.getLoadClass());
+			if (activeLoads.containsKey(widget) || lane.active >= lane.width) continue;
+
+			if (viewport == null) { // Nothing to rank by: keep queue order
+				best = widget;
+				bestLane = lane;
+				break;
+			}
+
+			Rectangle bounds = pending.bounds;
+			Rectangle visible = bounds.intersection(viewport);
+			double visibleArea = visible.isEmpty() ? 0.0 : (double)visible.width * visible.height;
+			boolean onScreen = visibleArea > 0.0 && pending.isVisible;
+
+			double distance = Math.hypot(
+					bounds.getCenterX() - viewport.getCenterX(),
+					bounds.getCenterY() - viewport.getCenterY());
+			double diagonal = Math.max(1.0, Math.hypot(viewport.width, viewport.height));
+
+			double score = (visibleArea + 1.0) / (1.0 + (distance / diagonal));
+
+			if (best == null ||
+					(onScreen && !bestOnScreen) ||
+					(onScreen == bestOnScreen && score > bestScore)) {
+				best = widget;
+				bestLane = lane;
+				bestOnScreen = onScreen;
+				bestScore = score;
+			}
+		}
+
+		if (best == null) return nextReadyTime;
+
+		long readyTime = pendingLoads.remove(best).getReadyTime(now);
+		long waitTime = Math.max(0, now - readyTime);
+
+		bestLane.active++;
+		bestLane.startedCount++;
+		bestLane.totalWaitTime += waitTime;
+		bestLane.maxWaitTime = Math.max(bestLane.maxWaitTime, waitTime);
+		activeLoads.put(best, bestLane);
+
+		// Loads on the widgets own dispatcher: the lane is freed once the load has been processed
+		CompletableFuture<Float> load = best.requestLoad();
+		load.whenComplete(new LoadFinished(best));
+
+		return 0;
+	}
+
+	private synchronized void loadFinished(HeavyDutyInteractiveWidget widget) {
+		LoadLane lane = activeLoads.remove(widget);
+		if (lane != null) lane.active--;
+		notifyAll();
+	}
+
+	private class LoadFinished implements BiConsumer<Float, Throwable> {
+
+		private final HeavyDutyInteractiveWidget widget;
+
+		LoadFinished(HeavyDutyInteractiveWidget widget) {
+			this.widget = widget;
+		}
+
+		@Override
+		public void accept(Float loadState, Throwable failure) {
+			loadFinished(widget);
+		}
+	}
+
+	/**
+	 * A queued load - its ready time adapts to the navigation pace while it waits.
+	 */
+	private class PendingLoad {
+
+		final long queueTime;
+		final int delay;
+
+		// Snapshotted on the swing thread
+		Rectangle bounds = null;
+		boolean isVisible = false;
+
+		PendingLoad(long queueTime, int delay) {
+			this.queueTime = queueTime;
+			this.delay = delay;
+		}
+
+		/**
+		 * Snapshots where the widget is. Swing thread only.
+		 */
+		void place(HeavyDutyInteractiveWidget widget) {
+			bounds = widget.getBounds();
+			isVisible = widget.isVisible();
+		}
+
+		/**
+		 * Takes the snapshot of another load of the same widget.
+		 */
+		void place(PendingLoad other) {
+			bounds = other.bounds;
+			isVisible = other.isVisible;
+		}
+
+		/**
+		 * Must hold lock.
+		 *
+		 * @param now
+		 * 		The current time (ms) - the ready time shortens once the user settles on the frame.
+		 */
+		long getReadyTime(long now) {
+			return queueTime + adaptDelay(delay, now);
+		}
+	}
+
+	private static class LoadLane {
+
+		final int width;
+
+		int active = 0;
+
+		// Metrics
+		long startedCount = 0;
+		long totalWaitTime = 0;
+		long maxWaitTime = 0;
+
+		LoadLane(int width) {
+			this.width = width;
+		}
+	}
+
+	private class SchedulerThread extends Thread {
+
+		SchedulerThread() {
+			super("HDW-Load-Scheduler");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+
+			synchronized(HeavyDutyLoadScheduler.this) {
+
+				try {
+					while (true) {
+
+						long nextReadyTime = startNext();
+						if (nextReadyTime == 0) continue; // Start as many as the lanes allow
+
+						if (nextReadyTime == Long.MAX_VALUE) {
+							HeavyDutyLoadScheduler.this.wait();
+						} else {
+							// Until the next ready time or the user settling - frame changes notify
+							long waitTime = Math.max(1, nextReadyTime - System.currentTimeMillis());
+							HeavyDutyLoadScheduler.this.wait(waitTime);
+						}
+					}
+				} catch (InterruptedException e) { /* Consume */
+				}
+
+				schedulerThread = null;
+			}
+		}
+	}
+
+}
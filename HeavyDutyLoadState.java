@@ -0,0 +1,128 @@
+package org.expeditee.items.widgets;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The load state machine of a heavy duty widget.
+ *
+ * The load state and the expired flag are packed into a single atomic value, thus readers
+ * (e.g. the swing thread while painting) always see a consistent pair without locking.
+ * Transitions are validated and applied with compare-and-set:
+ * <ul>
+ * 		<li>PENDING, INCOMPLETED or FAILED to loading (percent or indeterminant)
+ * 		<li>loading to loading - i.e. progress
+ * 		<li>loading to COMPLETED, FAILED or INCOMPLETED
+ * 		<li>any state to expired PENDING
+ * </ul>
+ */
+final class HeavyDutyLoadState {
+
+	private static final long EXPIRED_FLAG = 1L << 32;
+	private static final long STATE_MASK = 0xFFFFFFFFL;
+
+	private final HeavyDutyInteractiveWidget _widget;
+
+	private final AtomicLong _packedState;
+
+	private final List<LoadStateListener> _listeners = new CopyOnWriteArrayList<LoadStateListener>();
+
+	HeavyDutyLoadState(HeavyDutyInteractiveWidget widget, float initialState) {
+		assert(widget != null);
+		_widget = widget;
+		_packedState = new AtomicLong(pack(initialState, false));
+	}
+
+	/**
+	 * @return The current load state.
+	 */
+	float get() {
+		return unpackState(_packedState.get());
+	}
+
+	/**
+	 * @return True if the widget is in an expired state.
+	 */
+	boolean isExpired() {
+		return unpackExpired(_packedState.get());
+	}
+
+	/**
+	 * Transitions to a new state - if the transition is legal from the current state.
+	 *
+	 * @param newState
+	 * 		The state to transition to.
+	 *
+	 * @param expired
+	 * 		True if expiring. In which case newState must be LOAD_STATE_PENDING.
+	 *
+	 * @return
+	 * 		True if transitioned. False if the transition was not legal from the current state.
+	 */
+	boolean transition(float newState, boolean expired) {
+
+		long current;
+		float oldState;
+
+		do {
+			current = _packedState.get();
+			oldState = unpackState(current);
+
+			if (!isLegal(oldState, newState, expired)) return false;
+
+		} while (!_packedState.compareAndSet(current, pack(newState, expired)));
+
+		for (LoadStateListener listener : _listeners) {
+			listener.loadStateChanged(_widget, oldState, newState, expired);
+		}
+
+		return true;
+	}
+
+	void addListener(LoadStateListener listener) {
+		if (listener == null) throw new NullPointerException("listener");
+		_listeners.add(listener);
+	}
+
+	void removeListener(LoadStateListener listener) {
+		_listeners.remove(listener);
+	}
+
+	static boolean isLegal(float from, float to, boolean expired) {
+
+		if (expired) // Expiring is a reset - allowed from any state
+			return to == HeavyDutyInteractiveWidget.LOAD_STATE_PENDING;
+
+		boolean isFromLoading = from <= 1.0f;
+
+		if (to <= 1.0f) { // Start or progress a load
+			return isFromLoading ||
+				from == HeavyDutyInteractiveWidget.LOAD_STATE_PENDING ||
+				from == HeavyDutyInteractiveWidget.LOAD_STATE_INCOMPLETED ||
+				from == HeavyDutyInteractiveWidget.LOAD_STATE_FAILED;
+		}
+
+		if (to == HeavyDutyInteractiveWidget.LOAD_STATE_COMPLETED ||
+				to == HeavyDutyInteractiveWidget.LOAD_STATE_FAILED ||
+				to == HeavyDutyInteractiveWidget.LOAD_STATE_INCOMPLETED) { // Finish a load
+			return isFromLoading;
+		}
+
+		return false;
+	}
+
+	private static long pack(float state, boolean expired) {
+		long packed = Float.floatToIntBits(state) & STATE_MASK;
+		return expired ? (packed | EXPIRED_FLAG) : packed;
+	}
+
+	private static float unpackState(long packed) {
+		return Float.intBitsToFloat((int)(packed & STATE_MASK));
+	}
+
+	private static boolean unpackExpired(long packed) {
+		return (packed & EXPIRED_FLAG) != 0;
+	}
+
+}
@@ -0,0 +1,200 @@
+package org.expeditee.items.widgets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Saves heavy duty widgets asynchronously, in groups.
+ *
+ * Save requests are collected into a batch for a short window ({@value #SAVE_BATCH_WINDOW_PROPERTY}
+ * system property, 50 ms by default) - so that all the widgets due at a save point end up in the same
+ * batch. Repeated requests for a widget that is already in the open batch collapse into one save.
+ *
+ * When the batch is flushed every widget saves on its own dispatcher, concurrently. Once they
+ * have all saved, their journals are committed one after another - each journal is its own file,
+ * so is forced to disk separately - and only then are the requests completed. Thus no journal is
+ * forced while other widgets of the batch are still writing theirs, but there is still one force
+ * per journal.
+ *
+ * Requests return before the save is made: the EntitySaveManager's save point is over before the
+ * heavy duty widgets saved at it are durable. Pending saves are flushed when Expeditee exits.
+ */
+public final class HeavyDutySaveCoordinator {
+
+	public static final String SAVE_BATCH_WINDOW_PROPERTY = "expeditee.widgets.hdw.savebatchwindow";
+
+	private static final long SAVE_BATCH_WINDOW_MS = Math.max(0, Long.getLong(SAVE_BATCH_WINDOW_PROPERTY, 50));
+
+	/** How long to wait for pending saves when Expeditee exits. */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private static HeavyDutySaveCoordinator _instance = new HeavyDutySaveCoordinator();
+
+	private final ScheduledExecutorService executor;
+
+	/** The widgets waiting to save - mapped to their requests future. */
+	private Map<HeavyDutyInteractiveWidget, CompletableFuture<Void>> openBatch =
+		new LinkedHashMap<HeavyDutyInteractiveWidget, CompletableFuture<Void>>();
+
+	/** The batches that have been flushed but not committed. */
+	private final Set<CompletableFuture<Void>> flushedBatches = new HashSet<CompletableFuture<Void>>();
+
+	private HeavyDutySaveCoordinator() {
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "HDW-Save-Coordinator");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush().get(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, "HDW-Save-Flush"));
+	}
+
+	public static HeavyDutySaveCoordinator getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * Requests that a widget be saved with the next batch.
+	 *
+	 * @param widget
+	 * 		Must not be null.
+	 *
+	 * @return
+	 * 		A future that completes once the widget has saved and its save has been committed.
+	 * 		If the widget is already waiting to save then its existing future is returned.
+	 */
+	public synchronized CompletableFuture<Void> requestSave(HeavyDutyInteractiveWidget widget) {
+		if (widget == null) throw new NullPointerException("widget");
+
+		CompletableFuture<Void> request = openBatch.get(widget);
+
+		if (request == null) {
+			request = new CompletableFuture<Void>();
+			openBatch.put(widget, request);
+
+			if (openBatch.size() == 1) { // First of the batch: close it after the window
+				executor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flushBatch();
+					}
+				}, SAVE_BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		return request;
+	}
+
+	/**
+	 * Saves the open batch now - rather than waiting for the window to close.
+	 *
+	 * @return
+	 * 		A future that completes once every batch flushed so far has been committed.
+	 */
+	public CompletableFuture<Void> flush() {
+		flushBatch();
+
+		synchronized(this) {
+			return CompletableFuture.allOf(flushedBatches.toArray(new CompletableFuture<?>[flushedBatches.size()]));
+		}
+	}
+
+	/**
+	 * Closes the open batch and starts saving it.
+	 */
+	private void flushBatch() {
+
+		final Map<HeavyDutyInteractiveWidget, CompletableFuture<Void>> batch;
+		final CompletableFuture<Void> batchCommitted = new CompletableFuture<Void>();
+
+		synchronized(this) {
+			if (openBatch.isEmpty()) return;
+			batch = openBatch;
+			openBatch = new LinkedHashMap<HeavyDutyInteractiveWidget, CompletableFuture<Void>>();
+			flushedBatches.add(batchCommitted);
+		}
+
+		final List<CompletableFuture<Float>> saves = new ArrayList<CompletableFuture<Float>>(batch.size());
+		for (HeavyDutyInteractiveWidget widget : batch.keySet()) {
+			saves.add(widget.queueSave());
+		}
+
+		CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[saves.size()]))
+			.whenCompleteAsync(new BatchCommit(batch, saves, batchCommitted), executor);
+	}
+
+	/**
+	 * Commits the journals of a batch once all of its widgets have saved, then completes the requests.
+	 */
+	private class BatchCommit implements BiConsumer<Void, Throwable> {
+
+		private final Map<HeavyDutyInteractiveWidget, CompletableFuture<Void>> batch;
+		private final List<CompletableFuture<Float>> saves;
+		private final CompletableFuture<Void> batchCommitted;
+
+		BatchCommit(Map<HeavyDutyInteractiveWidget, CompletableFuture<Void>> batch,
+				List<CompletableFuture<Float>> saves, CompletableFuture<Void> batchCommitted) {
+			this.batch = batch;
+			this.saves = saves;
+			this.batchCommitted = batchCommitted;
+		}
+
+		@Override
+		public void accept(Void result, Throwable failure) {
+
+			int i = 0;
+			for (Map.Entry<HeavyDutyInteractiveWidget, CompletableFuture<Void>> entry : batch.entrySet()) {
+
+				CompletableFuture<Float> save = saves.get(i++);
+				CompletableFuture<Void> request = entry.getValue();
+
+				if (save.isCompletedExceptionally()) {
+					try {
+						save.join();
+					} catch (CompletionException e) {
+						request.completeExceptionally(e.getCause());
+					}
+					continue;
+				}
+
+				try {
+					entry.getKey().commitJournal();
+					request.complete(null);
+				} catch (IOException e) {
+					e.printStackTrace();
+					request.completeExceptionally(e);
+				}
+			}
+
+			synchronized(HeavyDutySaveCoordinator.this) {
+				flushedBatches.remove(batchCommitted);
+			}
+			batchCommitted.complete(null);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.expeditee.items.widgets;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The shared threads which run the event dispatchers of all heavy duty widgets.
+ *
+ * Each heavy duty widget has its own serial mailbox of events - the mailbox is
+ * submitted to this executor whenever it has events, and at most one thread will
+ * drain it at any given time. Thus a widgets state transitions never run concurrently,
+ * while the total amount of threads is capped regardless of how many widgets there are.
+ *
+ * The amount of threads can be set with the {@value #THREAD_COUNT_PROPERTY} system property. By
+ * default there are enough threads for every load lane to be full (see {@link HeavyDutyLoadScheduler}),
+ * plus some for saves and unloads.
+ * Setting the {@value #VIRTUAL_THREADS_PROPERTY} system property to true runs the dispatchers
+ * on virtual threads if the JVM supports them - otherwise the pool is used.
+ */
+final class HeavyDutyWidgetExecutor {
+
+	public static final String THREAD_COUNT_PROPERTY = "expeditee.widgets.hdw.threads";
+
+	public static final String VIRTUAL_THREADS_PROPERTY = "expeditee.widgets.hdw.virtualthreads";
+
+	private static final int DEFAULT_THREAD_COUNT = HeavyDutyLoadScheduler.CPU_LANE_WIDTH
+		+ HeavyDutyLoadScheduler.IO_LANE_WIDTH
+		+ Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	/** How long idle pool threads stay alive for. */
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static Executor _executor = null;
+
+	private HeavyDutyWidgetExecutor() {
+	}
+
+	/**
+	 * @return
+	 * 		The shared executor. Never null.
+	 */
+	static synchronized Executor getExecutor() {
+
+		if (_executor == null) {
+
+			if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+				_executor = createVirtualThreadExecutor();
+			}
+
+			if (_executor == null) {
+				_executor = createPoolExecutor(Integer.getInteger(THREAD_COUNT_PROPERTY, DEFAULT_THREAD_COUNT));
+			}
+		}
+
+		return _executor;
+	}
+
+	private static Executor createPoolExecutor(int threadCount) {
+
+		if (threadCount <= 0) threadCount = DEFAULT_THREAD_COUNT;
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(
+				threadCount, threadCount,
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new DispatcherThreadFactory());
+
+		pool.allowCoreThreadTimeOut(true); // Don't hold on to threads when nothing is loading
+
+		return pool;
+	}
+
+	/**
+	 * @return
+	 * 		An executor that starts a virtual thread per task. Null if virtual threads
+	 * 		are not supported by the running JVM.
+	 */
+	private static Executor createVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		} catch (Exception e) {
+			System.err.println("Virtual threads are not available - using a thread pool for heavy duty widgets");
+			return null;
+		}
+	}
+
+	private static class DispatcherThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger _threadCount = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "HDW-Dispatcher-" + _threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
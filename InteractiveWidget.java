@@ -103,6 +103,9 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 	/** The minum border thickness for widgets. */
 	public final static float DEFAULT_MINIMUM_BORDER_THICKNESS = 1.0f;
 
+	/** Typed values of the data lines - parsed on demand. */
+	private final WidgetPropertyCache _properties = new WidgetPropertyCache(this);
+
 	/**
 	 * Creates a InteractiveWidget from a text item.
 	 * 
@@ -145,6 +148,8 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 			throw new IllegalArgumentException(
 					"source's parent is null, InteractiveWidget's must be created from Text items with non-null parents");
 
+		Object createEvent = WidgetFlightRecorder.getInstance().beginCreate();
+
 		String TAG = ItemUtils.GetTag(ItemUtils.TAG_IWIDGET);
 
 		String text = source.getText();
@@ -387,7 +392,7 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 	    
 	    inst.setAnchorCorners(anchor_left,anchor_right,anchor_top,anchor_bottom);
 	    
-	
+		WidgetFlightRecorder.getInstance().commitCreate(createEvent, inst);
 		
 		return inst;
 	}
@@ -734,6 +739,8 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 
 		setWidgetEdgeColor(source.getBorderColor());
 		setWidgetEdgeThickness(source.getThickness());
+		
+		WidgetMemoryAttribution.getInstance().register(this);
 	}
 
 	/**
@@ -1252,14 +1259,21 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 			if (_swingComponent.getParent() == null) {
 				addJComponantToFrame(e);
 			}
+			
+			// Catch up with any edits made directly to the source item while hidden
+			_properties.dataChanged();
 			break;
 
 		}
 
 		FrameGraphics.invalidateItem(_d1, _swingComponent.getBounds());
 
+		Object event = WidgetFlightRecorder.getInstance().beginParentStateChanged();
+
 		// Forward filtered event to upper classeses...
 		onParentStateChanged(e.getEventType());
+
+		WidgetFlightRecorder.getInstance().commitParentStateChanged(event, this, e.getEventType());
 	}
 
 	/**
@@ -1540,6 +1554,21 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 
 	}
 
+	/**
+	 * Override to report the memory held by this widget - e.g. to the MemoryMonitor
+	 * breakdown, and for heavy duty widgets to the WidgetCacheManager so that the widgets
+	 * holding the most memory are evicted first when the heap is running out.
+	 * Should be cheap - e.g. a running total kept while loading.
+	 * 
+	 * @see WidgetMemoryAttribution
+	 * 
+	 * @return
+	 * 		An estimate of the bytes held by this widget. Zero if unknown - the default.
+	 */
+	public long getEstimatedRetainedSize() {
+		return 0;
+	}
+
 	/**
 	 * @return The parent frame. Null if has none. Note: Based on corners
 	 *         parents.
@@ -1623,6 +1652,7 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 	 * @see #getCurrentRepresentation
 	 * @see #getStrippedDataInt(String, int)
 	 * @see #getStrippedDataLong(String, long)
+	 * @see #getIntProperty(String, int)
 	 * 
 	 * @param tag
 	 *            The prefix of a dataline that will be matched. Must be larger
@@ -1739,6 +1769,118 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 		return defaultValue;
 	}
 
+	/**
+	 * Typed, cached equivalent of {@link #getStrippedDataInt(String, Integer)}.
+	 * The data line is only parsed the first time it is read - and again once
+	 * the data has changed. Thus it is cheap enough to use when painting.
+	 * 
+	 * @param tag
+	 *            The prefix of a dataline that will be matched. Must be larger
+	 *            the zero and not null.
+	 * 
+	 * @param defaultValue
+	 *            The default value if the tag does not exist or contains
+	 *            invalid data.
+	 * 
+	 * @return The <i>first</i> dataline that matched the prefix - parsed as an
+	 *         int. defaultValue if their was no data that matched the given
+	 *         prefix or the data was invalid.
+	 * 
+	 * @throws NullPointerException
+	 *             If tag is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If tag is empty.
+	 * 
+	 */
+	protected int getIntProperty(String tag, int defaultValue) {
+		Object value = _properties.get(tag, Integer.class);
+		return (value != null) ? (Integer) value : defaultValue;
+	}
+
+	/**
+	 * Typed, cached equivalent of {@link #getStrippedDataLong(String, Long)}.
+	 * 
+	 * @see #getIntProperty(String, int)
+	 */
+	protected long getLongProperty(String tag, long defaultValue) {
+		Object value = _properties.get(tag, Long.class);
+		return (value != null) ? (Long) value : defaultValue;
+	}
+
+	/**
+	 * @see #getIntProperty(String, int)
+	 */
+	protected double getDoubleProperty(String tag, double defaultValue) {
+		Object value = _properties.get(tag, Double.class);
+		return (value != null) ? (Double) value : defaultValue;
+	}
+
+	/**
+	 * Accepts true/false, yes/no, on/off and 1/0 - ignoring case.
+	 * 
+	 * @see #getIntProperty(String, int)
+	 */
+	protected boolean getBooleanProperty(String tag, boolean defaultValue) {
+		Object value = _properties.get(tag, Boolean.class);
+		return (value != null) ? (Boolean) value : defaultValue;
+	}
+
+	/**
+	 * Matches the data line against the enum constants names - ignoring case.
+	 * 
+	 * @see #getIntProperty(String, int)
+	 * 
+	 * @param enumType
+	 *            The enum class to parse as. Must not be null.
+	 */
+	protected <E extends Enum<E>> E getEnumProperty(String tag, Class<E> enumType, E defaultValue) {
+		if (enumType == null)
+			throw new NullPointerException("enumType");
+		Object value = _properties.get(tag, enumType);
+		return (value != null) ? enumType.cast(value) : defaultValue;
+	}
+
+	/**
+	 * @see #getIntProperty(String, int)
+	 * 
+	 * @return The <i>first</i> dataline that matched the prefix - split by
+	 *         commas with each entry trimmed. Empty entries are ignored. Never
+	 *         null: an empty list if there was no data that matched. The list
+	 *         is unmodifiable.
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<String> getStringListProperty(String tag) {
+		Object value = _properties.get(tag, List.class);
+		return (value != null) ? (List<String>) value : Collections.<String>emptyList();
+	}
+
+	/**
+	 * Listens for changes to a property. Changes made via
+	 * {@link #updateData(String, String)}, {@link #removeData(String)} or
+	 * {@link #setSourceData(List)} are raised immediately. Changes made
+	 * directly to the source item are raised once the widget is next shown or
+	 * reads a property. Listeners are always raised on the swing thread.
+	 * 
+	 * @param tag
+	 *            The prefix of the data line to listen to. Must be larger the
+	 *            zero and not null.
+	 * 
+	 * @param listener
+	 *            The listener to add. Must not be null. Ignored if already added
+	 *            for the tag.
+	 */
+	public void addPropertyListener(String tag, WidgetPropertyListener listener) {
+		_properties.addListener(tag, listener);
+	}
+
+	/**
+	 * @see #addPropertyListener(String, WidgetPropertyListener)
+	 */
+	public void removePropertyListener(String tag, WidgetPropertyListener listener) {
+		_properties.removeListener(tag, listener);
+	}
+
 	/**
 	 * All data is removed that is prefixed with the given tag.
 	 * 
@@ -1774,6 +1916,7 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 		
 		data.add(tag);
 		getCurrentRepresentation().setData(data);
+		_properties.dataChanged();
 	}
 
 	
@@ -1828,6 +1971,8 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 
 			}
 		}
+
+		_properties.dataChanged();
 	}
 	
 	public boolean containsData(String str) {
@@ -1978,6 +2123,7 @@ public abstract class InteractiveWidget implements ContainerListener, KeyListene
 
 	public void setSourceData(List<String> data) {
 		_textRepresentation.setData(data);
+		_properties.dataChanged();
 	}
 
 	protected Point getOrigin() {
@@ -108,6 +108,15 @@ public class JfxBrowser extends DataFrameWidget {
 	
 	private boolean _parserRunning;
 	
+	/** The amount of pages in the history - kept so that it can be read off the JavaFX thread. */
+	private volatile int _historySize = 0;
+	
+	/** Roughly what the web view and engine hold on the heap before any page is loaded. */
+	private static final long BROWSER_BYTES = 1024L * 1024L;
+	
+	/** Roughly what each page in the history holds on the heap. */
+	private static final long HISTORY_ENTRY_BYTES = 2 * 1024;
+	
 	private MouseButton _buttonDownId = MouseButton.NONE;
 	private MouseEvent _backupEvent = null;
 	private static Field MouseEvent_x, MouseEvent_y;
@@ -587,6 +596,8 @@ public class JfxBrowser extends DataFrameWidget {
 						if (JfxBrowser.this._webEngine.getHistory().getEntries().size() > 0) {
 							JfxBrowser.this._backButton.setDisable(false);
 						}
+						
+						JfxBrowser.this._historySize = JfxBrowser.this._webEngine.getHistory().getEntries().size();
 
 						JfxBrowser.this._convertButton.setDisable(true);
 						JfxBrowser.this._readableModeButton.setDisable(true);
@@ -998,6 +1009,17 @@ public class JfxBrowser extends DataFrameWidget {
 		this._webView.getParent().resize(0, 0);
 	}
 
+	/**
+	 * The web view, its history and the panels pixel buffers - the swing side copy of
+	 * the scene, and the image it is painted from. The page itself is mostly held natively
+	 * by WebKit, so is not included.
+	 */
+	@Override
+	public long getEstimatedRetainedSize() {
+		long bufferBytes = 2L * 4L * Math.max(0, getWidth()) * Math.max(0, getHeight());
+		return BROWSER_BYTES + bufferBytes + HISTORY_ENTRY_BYTES * this._historySize;
+	}
+
 	@Override
 	protected String[] getArgs() {
 		String[] r = null;
@@ -0,0 +1,184 @@
+package org.expeditee.items.widgets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancels a single load of a heavy duty widget.
+ *
+ * A new token is issued every time a widget is requested to load. Load logic can poll it,
+ * register callbacks to run once it is cancelled (e.g. to abort a download), or register
+ * streams to close once it is cancelled.
+ *
+ * If the widgets load is interruptible (see {@link HeavyDutyInteractiveWidget#isLoadInterruptible()})
+ * then cancelling also interrupts the loading thread - which wakes it from waits and sleeps, and
+ * aborts blocking I/O on interruptible channels (e.g. FileChannel) with a ClosedByInterruptException.
+ * The interrupt never outlives the load.
+ *
+ * @see HeavyDutyInteractiveWidget#getLoadCancellationToken()
+ */
+public final class LoadCancellationToken {
+
+	/**
+	 * Why a load was cancelled.
+	 */
+	public enum Reason {
+		/** Cancelled through the load manager or by the widget itself. */
+		Requested,
+		/** The user navigated away from the widget. */
+		Navigation,
+		/** The widget was deleted - including while in free space. */
+		Deleted
+	}
+
+	private volatile boolean isCancelled = false;
+
+	private Reason reason = null; // guarded by this
+
+	private List<Runnable> callbacks = new LinkedList<Runnable>(); // guarded by this. Null once cancelled
+
+	/** The thread running the load. Null if not loading. */
+	private Thread loadingThread = null; // guarded by this
+
+	private boolean interruptsLoadingThread = false; // guarded by this
+
+	LoadCancellationToken() {
+	}
+
+	/**
+	 * @return
+	 * 		True if the load has been cancelled.
+	 */
+	public boolean isCancelled() {
+		return isCancelled;
+	}
+
+	/**
+	 * @return
+	 * 		Why the load was cancelled. Null if not cancelled.
+	 */
+	public synchronized Reason getReason() {
+		return reason;
+	}
+
+	/**
+	 * @throws CancellationException
+	 * 		If the load has been cancelled.
+	 */
+	public void throwIfCancelled() {
+		if (isCancelled) throw new CancellationException("Load cancelled");
+	}
+
+	/**
+	 * Registers a callback to run once the load is cancelled. Callbacks run on the cancelling
+	 * thread - often the swing thread - so must be quick.
+	 *
+	 * @param callback
+	 * 		Must not be null. Runs immediately if the load has already been cancelled.
+	 */
+	public void onCancel(Runnable callback) {
+		if (callback == null) throw new NullPointerException("callback");
+
+		synchronized(this) {
+			if (callbacks != null) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+
+		runCallback(callback);
+	}
+
+	/**
+	 * Closes the given stream once the load is cancelled - aborting any read or write
+	 * blocked on it that an interrupt would not.
+	 *
+	 * @param stream
+	 * 		Must not be null. Closed immediately if the load has already been cancelled.
+	 */
+	public void closeOnCancel(final Closeable stream) {
+		if (stream == null) throw new NullPointerException("stream");
+
+		onCancel(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					stream.close();
+				} catch (IOException e) { /* Consume: the load is being abandoned */ }
+			}
+		});
+	}
+
+	/**
+	 * Cancels the load: runs the callbacks and interrupts the loading thread if allowed.
+	 *
+	 * @param why
+	 * 		Must not be null.
+	 *
+	 * @return
+	 * 		True if this cancelled the load. False if it was already cancelled.
+	 */
+	boolean cancel(Reason why) {
+		assert(why != null);
+
+		List<Runnable> toRun;
+
+		synchronized(this) {
+			if (isCancelled) return false;
+
+			reason = why;
+			isCancelled = true;
+
+			toRun = callbacks;
+			callbacks = null;
+
+			if (loadingThread != null && interruptsLoadingThread) {
+				loadingThread.interrupt();
+			}
+		}
+
+		for (Runnable callback : toRun) {
+			runCallback(callback);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Invoked by the widgets dispatcher as the load starts.
+	 *
+	 * @param thread
+	 * 		The thread that is about to run the load.
+	 *
+	 * @param interruptible
+	 * 		True to interrupt the thread on cancel.
+	 */
+	synchronized void loadStarted(Thread thread, boolean interruptible) {
+		loadingThread = thread;
+		interruptsLoadingThread = interruptible;
+	}
+
+	/**
+	 * Invoked by the widgets dispatcher once the load has returned. Clears any interrupt
+	 * made by this token - the thread is shared with other widgets.
+	 */
+	void loadFinished() {
+		synchronized(this) {
+			loadingThread = null;
+		}
+		// No interrupt can be made from here on: clear any made while loading
+		Thread.interrupted();
+	}
+
+	private static void runCallback(Runnable callback) {
+		try {
+			callback.run();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
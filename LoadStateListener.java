@@ -0,0 +1,28 @@
+package org.expeditee.items.widgets;
+
+/**
+ * Listens for load state transitions of a heavy duty widget.
+ *
+ * @see HeavyDutyInteractiveWidget#addLoadStateListener(LoadStateListener)
+ */
+public interface LoadStateListener {
+
+	/**
+	 * Invoked after a load state transition has been made. This is raised on the
+	 * thread that made the transition - which is usually not the swing thread.
+	 * Should return quickly.
+	 *
+	 * @param widget
+	 * 		The widget whose state changed. Never null.
+	 *
+	 * @param oldState
+	 * 		The load state before the transition.
+	 *
+	 * @param newState
+	 * 		The load state after the transition.
+	 *
+	 * @param expired
+	 * 		True if the transition was caused by the widget expiring or being temporarily unloaded.
+	 */
+	void loadStateChanged(HeavyDutyInteractiveWidget widget, float oldState, float newState, boolean expired);
+}
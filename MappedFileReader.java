@@ -0,0 +1,190 @@
+package org.expeditee.items.widgets;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file for a heavy duty widgets load through memory-mapped regions.
+ *
+ * The file is mapped a window at a time, and read either sequentially in chunks
+ * ({@link #nextChunk(int)}) or at random ({@link #view(long, int)}). Either way the buffers
+ * returned are read-only views straight onto the mapping - nothing is copied onto the heap.
+ *
+ * Reading sequentially drives the widgets load bar by the bytes consumed, and checks whether
+ * the load has been cancelled before every chunk - so the load needs no progress or
+ * cancellation logic of its own.
+ *
+ * Not thread safe: use on the loading thread only.
+ *
+ * @see HeavyDutyInteractiveWidget#openMappedFile(File)
+ */
+public final class MappedFileReader implements Closeable {
+
+	/** The most that is mapped at once. */
+	static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final HeavyDutyInteractiveWidget widget;
+
+	private final LoadCancellationToken token;
+
+	private final FileChannel channel;
+
+	private final long size;
+
+	/** The sequential read position. */
+	private long position = 0;
+
+	/** The window that the position is in. Null if not mapped yet. */
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+
+	/**
+	 * @param widget
+	 * 		The loading widget - whose load bar is updated as the file is read. Null to not update.
+	 *
+	 * @param token
+	 * 		Checked before every chunk. Must not be null.
+	 *
+	 * @param file
+	 * 		The file to read. Must not be null.
+	 *
+	 * @throws IOException
+	 * 		If failed to open the file.
+	 */
+	MappedFileReader(HeavyDutyInteractiveWidget widget, LoadCancellationToken token, File file) throws IOException {
+		if (file == null) throw new NullPointerException("file");
+		assert(token != null);
+
+		this.widget = widget;
+		this.token = token;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.size = channel.size();
+	}
+
+	/**
+	 * @return
+	 * 		The size of the file in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return
+	 * 		The sequential read position in bytes.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return
+	 * 		True if there are bytes left to read sequentially.
+	 */
+	public boolean hasRemaining() {
+		return position < size;
+	}
+
+	/**
+	 * Moves the sequential read position.
+	 *
+	 * @param newPosition
+	 * 		Between zero and the file size inclusive.
+	 */
+	public void seek(long newPosition) {
+		if (newPosition < 0 || newPosition > size)
+			throw new IllegalArgumentException("Position out of range: " + newPosition);
+		position = newPosition;
+	}
+
+	/**
+	 * Reads the next chunk sequentially - reporting the progress through the file to the
+	 * widgets load bar.
+	 *
+	 * @param maxLength
+	 * 		The most bytes to read. Must be positive. Fewer are returned at the end of the
+	 * 		file or of a mapped window.
+	 *
+	 * @return
+	 * 		A read-only view of the chunk. Null at the end of the file.
+	 *
+	 * @throws java.util.concurrent.CancellationException
+	 * 		If the load has been cancelled.
+	 *
+	 * @throws IOException
+	 * 		If failed to map the file.
+	 */
+	public ByteBuffer nextChunk(int maxLength) throws IOException {
+		if (maxLength <= 0) throw new IllegalArgumentException("maxLength must be positive");
+
+		token.throwIfCancelled();
+
+		if (position >= size) return null;
+
+		if (window == null || position < windowStart || position >= windowStart + window.capacity()) {
+			windowStart = position;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+					Math.min(WINDOW_SIZE, size - windowStart));
+		}
+
+		int offset = (int)(position - windowStart);
+		int length = Math.min(maxLength, window.capacity() - offset);
+
+		ByteBuffer chunk = slice(window, offset, length);
+		position += length;
+
+		if (widget != null) widget.updateLoadPercentage((float)((double)position / size));
+
+		return chunk;
+	}
+
+	/**
+	 * Views any part of the file - without moving the sequential read position or
+	 * reporting progress.
+	 *
+	 * @param offset
+	 * 		The start of the view in bytes.
+	 *
+	 * @param length
+	 * 		The length of the view in bytes.
+	 *
+	 * @return
+	 * 		A read-only view. Never null.
+	 *
+	 * @throws IOException
+	 * 		If failed to map the file.
+	 */
+	public ByteBuffer view(long offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > size)
+			throw new IllegalArgumentException("View out of range: " + offset + "+" + length);
+
+		// Reuse the current window if it covers the view
+		if (window != null && offset >= windowStart && offset + length <= windowStart + window.capacity()) {
+			return slice(window, (int)(offset - windowStart), length);
+		}
+
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Closes the file. Views already returned remain valid.
+	 */
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice().asReadOnlyBuffer();
+	}
+
+}
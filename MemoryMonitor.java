@@ -4,36 +4,137 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
 
 import javax.swing.JPanel;
-import javax.swing.SwingUtilities;
 
+import org.expeditee.gui.FrameUtils;
 import org.expeditee.items.ItemParentStateChangedEvent;
 import org.expeditee.items.Text;
 
 /**
- * A widget for displaying the heap space uasage at runtime
+ * A widget for displaying the heap space uasage at runtime - with a sparkline of its
+ * recent history, and ticks where garbage collections happened.
+ * 
+ * Samples come from the shared {@link RuntimeSampler}: however many monitors are shown
+ * there is only one sampling thread.
+ * 
+ * Clicking toggles the breakdown view (also set by the "breakdown" argument), which lists
+ * the widget classes and widgets holding the most memory - see {@link WidgetMemoryAttribution}.
+ * Resize the widget to see more of the breakdown. The breakdown is always from the widgets
+ * estimates: it is retaken every few seconds on the swing thread, too often to measure.
+ * Clicking a widget in the breakdown goes to the frame holding it.
  * 
  * @author Brook Novak
  *
  */
-public class MemoryMonitor extends InteractiveWidget {
+public class MemoryMonitor extends InteractiveWidget implements RuntimeSampler.Listener {
 	
 	private long totalMemoryInBytes;
 	private float currentMemoryUsage;
-	private MonitorThread monitorThread = null;
+	private boolean isListening = false;
+	
+	private boolean showBreakdown = false;
+	private WidgetMemoryAttribution.Breakdown breakdown = null;
+	private long breakdownTime = 0;
+	
+	// Reused on every paint - one sample per pixel column
+	private long[][] history = new long[HISTORY_METRICS.length][0];
+	private int[] sparkX = new int[0];
+	private int[] sparkY = new int[0];
 
 	private static final Font USAGE_FONT = new Font("Arial", Font.BOLD, 12);
 	
+	private static final Color SPARKLINE_COLOR = Color.DARK_GRAY;
+	
+	private static final Color GC_COLOR = Color.BLUE;
+	
+	/** The metrics charted - copied together so that they line up. */
+	private static final RuntimeSampler.Metric[] HISTORY_METRICS = {
+		RuntimeSampler.Metric.HEAP_USED,
+		RuntimeSampler.Metric.HEAP_COMMITTED,
+		RuntimeSampler.Metric.GC_COUNT
+	};
+	
+	private static final Color LINK_COLOR = Color.BLUE;
+	
+	private static final Font BREAKDOWN_FONT = new Font("Arial", Font.PLAIN, 10);
+	
+	private static final int GAUGE_SIZE = 40;
+	
+	private static final int BREAKDOWN_LINE_HEIGHT = 12;
+	
+	/** How often the breakdown is retaken while shown. */
+	private static final long BREAKDOWN_INTERVAL_MS = 2000;
+	
+	private static final String BREAKDOWN_ARG = "breakdown";
+	
 
 	public MemoryMonitor(Text source, String[] args) {
-		super(source, new JPanel(), 40, 40, 40, 40);
+		super(source, new JPanel(), GAUGE_SIZE, -1, GAUGE_SIZE, -1);
+		
+		if (args != null) {
+			for (String arg : args) {
+				if (BREAKDOWN_ARG.equalsIgnoreCase(arg)) showBreakdown = true;
+			}
+		}
+		
+		_swingComponent.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				WidgetMemoryAttribution.WidgetUsage usage = getWidgetUsageAt(e.getY());
+				if (usage != null) {
+					if (usage.getFrameName() != null) FrameUtils.DisplayFrame(usage.getFrameName());
+					return;
+				}
+				
+				showBreakdown = !showBreakdown;
+				breakdown = null;
+				updateBreakdown();
+				invalidateSelf();
+			}
+		});
+		
 		updateMemoryUsage();
 	}
 	
 	@Override
 	protected String[] getArgs() {
-		return null;
+		return showBreakdown ? new String[] { BREAKDOWN_ARG } : null;
+	}
+	
+	/**
+	 * Retakes the breakdown if shown and due.
+	 */
+	private void updateBreakdown() {
+		if (!showBreakdown) return;
+		
+		long now = System.currentTimeMillis();
+		if (breakdown == null || now - breakdownTime >= BREAKDOWN_INTERVAL_MS) {
+			breakdown = WidgetMemoryAttribution.getInstance().takeBreakdown(false);
+			breakdownTime = now;
+		}
+	}
+	
+	/**
+	 * @param y
+	 * 		Relative to the top of the widget.
+	 * 
+	 * @return
+	 * 		The widget listed in the breakdown at the given height. Null if none.
+	 */
+	private WidgetMemoryAttribution.WidgetUsage getWidgetUsageAt(int y) {
+		if (!showBreakdown || breakdown == null) return null;
+		
+		// Laid out as painted: a total line, then the classes, then the widgets
+		int top = Math.min(getHeight(), GAUGE_SIZE);
+		if (y < top) return null;
+		
+		int index = ((y - top) / BREAKDOWN_LINE_HEIGHT) - 1 - breakdown.getClasses().size();
+		List<WidgetMemoryAttribution.WidgetUsage> widgets = breakdown.getWidgets();
+		return (index >= 0 && index < widgets.size()) ? widgets.get(index) : null;
 	}
 	
 	private void updateMemoryUsage()
@@ -43,10 +144,20 @@ public class MemoryMonitor extends InteractiveWidget {
 		invalidateSelf();
 	}
 	
+	@Override
+	public void sampled(RuntimeSampler sampler) {
+		totalMemoryInBytes = sampler.getLatest(RuntimeSampler.Metric.HEAP_COMMITTED);
+		if (totalMemoryInBytes <= 0) return;
+		currentMemoryUsage = sampler.getLatest(RuntimeSampler.Metric.HEAP_USED) / (float)totalMemoryInBytes;
+		updateBreakdown();
+		invalidateSelf();
+	}
+	
 	@Override
 	public void paint(Graphics g) {
 		
-		int height = getHeight();
+		// The breakdown is listed under the gauge
+		int height = (showBreakdown && breakdown != null) ? Math.min(getHeight(), GAUGE_SIZE) : getHeight();
 		int width = getWidth();
 		
 		int memHeight = (int)(height * currentMemoryUsage);
@@ -72,8 +183,85 @@ public class MemoryMonitor extends InteractiveWidget {
 		g.setFont(USAGE_FONT);
 		g.drawString(percent + "%", getX() + 12, getY() + (height / 2) + 8);
 		
+		paintHistory(g, width, height);
+		
+		if (height < getHeight()) paintBreakdown(g, width, height);
+		
 		paintLink((Graphics2D)g);
 	}
+	
+	/**
+	 * Lists the classes then widgets holding the most memory - as many as fit.
+	 */
+	private void paintBreakdown(Graphics g, int width, int top) {
+		
+		g.setColor(Color.WHITE);
+		g.fillRect(getX(), getY() + top, width, getHeight() - top);
+		
+		g.setColor(Color.BLACK);
+		g.setFont(BREAKDOWN_FONT);
+		
+		int y = getY() + top + BREAKDOWN_LINE_HEIGHT;
+		int bottom = getY() + getHeight();
+		
+		y = paintLine(g, "Widgets: " + WidgetMemoryAttribution.formatBytes(breakdown.getTotal())
+				+ (breakdown.isMeasured() ? " measured" : " estimated"), y, bottom);
+		y = paintLines(g, breakdown.getClasses(), y, bottom);
+		
+		// Widgets link to their frames
+		g.setColor(LINK_COLOR);
+		paintLines(g, breakdown.getWidgets(), y, bottom);
+	}
+	
+	private int paintLines(Graphics g, List<?> usages, int y, int bottom) {
+		for (Object usage : usages) {
+			if (y > bottom) break;
+			y = paintLine(g, "  " + usage, y, bottom);
+		}
+		return y;
+	}
+	
+	private int paintLine(Graphics g, String line, int y, int bottom) {
+		if (y <= bottom) g.drawString(line, getX() + 2, y);
+		return y + BREAKDOWN_LINE_HEIGHT;
+	}
+	
+	/**
+	 * Draws the heap usage of the most recent samples right to left, newest at the right edge.
+	 */
+	private void paintHistory(Graphics g, int width, int height) {
+		if (width <= 1 || height <= 0) return;
+		
+		if (sparkX.length != width) {
+			history = new long[HISTORY_METRICS.length][width];
+			sparkX = new int[width];
+			sparkY = new int[width];
+		}
+		
+		int n = RuntimeSampler.getInstance().copyHistory(HISTORY_METRICS, history);
+		if (n < 2) return;
+		
+		long[] usedHistory = history[0];
+		long[] committedHistory = history[1];
+		long[] gcHistory = history[2];
+		
+		int left = getX() + width - n;
+		int bottom = getY() + height - 1;
+		
+		g.setColor(GC_COLOR);
+		for (int i = 1; i < n; i++) {
+			if (gcHistory[i] != gcHistory[i - 1]) g.drawLine(left + i, bottom, left + i, bottom - 3);
+		}
+		
+		for (int i = 0; i < n; i++) {
+			float usage = (committedHistory[i] <= 0) ? 0 : usedHistory[i] / (float)committedHistory[i];
+			sparkX[i] = left + i;
+			sparkY[i] = bottom - (int)((height - 1) * Math.min(1.0f, usage));
+		}
+		
+		g.setColor(SPARKLINE_COLOR);
+		g.drawPolyline(sparkX, sparkY, n);
+	}
 
 
 	@Override
@@ -84,9 +272,9 @@ public class MemoryMonitor extends InteractiveWidget {
 		case ItemParentStateChangedEvent.EVENT_TYPE_HIDDEN:
 		case ItemParentStateChangedEvent.EVENT_TYPE_REMOVED:
 		case ItemParentStateChangedEvent.EVENT_TYPE_REMOVED_VIA_OVERLAY:
-			if (monitorThread != null) {
-				monitorThread.destroy();
-				monitorThread = null;
+			if (isListening) {
+				RuntimeSampler.getInstance().removeListener(this);
+				isListening = false;
 			} 
 			break;
 
@@ -94,51 +282,13 @@ public class MemoryMonitor extends InteractiveWidget {
 		case ItemParentStateChangedEvent.EVENT_TYPE_ADDED_VIA_OVERLAY:
 		case ItemParentStateChangedEvent.EVENT_TYPE_SHOWN:
 		case ItemParentStateChangedEvent.EVENT_TYPE_SHOWN_VIA_OVERLAY:
-			if (monitorThread == null) {
-				monitorThread = new MonitorThread();
-				monitorThread.start();
+			if (!isListening) {
+				RuntimeSampler.getInstance().addListener(this);
+				isListening = true;
 			}
 			break;
 			
 		}
 
 	}
-
-	private class MonitorThread extends Thread
-	{
-		private MonitorGUIUpdator guiRunner = new MonitorGUIUpdator();
-
-		public MonitorThread()
-		{
-			setDaemon(true);
-		}
-		
-		@Override
-		public void destroy()
-		{
-			interrupt();
-		}
-		
-		@Override
-		public void run()
-		{
-			try {
-				while(!isInterrupted())
-				{
-					SwingUtilities.invokeLater(guiRunner);
-					sleep(5000);
-				}
-			} catch (InterruptedException e) {
-			}
-		}
-		
-		private class MonitorGUIUpdator implements Runnable
-		{
-			@Override
-			public void run()
-			{
-				updateMemoryUsage();
-			}
-		}
-	}
 }
@@ -0,0 +1,261 @@
+package org.expeditee.items.widgets;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.JPanel;
+
+import org.expeditee.gui.MessageBay;
+import org.expeditee.items.ItemParentStateChangedEvent;
+import org.expeditee.items.Text;
+
+/**
+ * A widget for profiling Expeditee live - from within, using JDK Flight Recorder event streaming.
+ * Charts the allocation rate, GC pauses, CPU load and monitor contention over the last few minutes,
+ * and lists the hottest methods.
+ *
+ * Double click to dump the last few minutes of flight recording to a file - which can be opened
+ * with JDK Mission Control.
+ *
+ * Needs JDK 14 or later with the jdk.jfr module - otherwise says so rather than profiling. The
+ * {@link FlightRecorderSampler} is only touched once jdk.jfr is known to be present.
+ */
+public class ProfilerMonitor extends InteractiveWidget implements FlightRecorderSampler.Listener {
+
+	private boolean isListening = false;
+
+	private String unavailableReason = JFR_UNAVAILABLE_REASON;
+
+	// Reused on every paint - one flush per pixel column
+	private double[] history = new double[0];
+	private int[] sparkX = new int[0];
+	private int[] sparkY = new int[0];
+
+	private static final Font LABEL_FONT = new Font("Arial", Font.BOLD, 10);
+
+	private static final Font TEXT_FONT = new Font("Arial", Font.PLAIN, 10);
+
+	private static final int CHART_HEIGHT = 24;
+
+	private static final int LINE_HEIGHT = 12;
+
+	private static final Color SPARKLINE_COLOR = Color.BLUE;
+
+	private static final Color CHART_BACKCOLOR = new Color(235, 235, 235);
+
+	private static final FlightRecorderSampler.Metric[] CHARTED = {
+		FlightRecorderSampler.Metric.ALLOCATION_RATE,
+		FlightRecorderSampler.Metric.GC_PAUSE,
+		FlightRecorderSampler.Metric.JVM_CPU,
+		FlightRecorderSampler.Metric.MACHINE_CPU,
+		FlightRecorderSampler.Metric.CONTENTION
+	};
+
+	private static final String[] CHART_LABELS = { "Alloc/s", "GC pause", "JVM CPU", "CPU", "Contention" };
+
+	/** Why flight recorder streaming cannot be used in this JVM. Null if it can. */
+	private static final String JFR_UNAVAILABLE_REASON = checkAvailable();
+
+	private static String checkAvailable() {
+		try {
+			Class.forName("jdk.jfr.consumer.RecordingStream");
+			return null;
+		} catch (ClassNotFoundException e) {
+		} catch (LinkageError e) {
+		}
+		return "Needs JDK 14 or later with jdk.jfr";
+	}
+
+	public ProfilerMonitor(Text source, String[] args) {
+		super(source, new JPanel(), 200, -1,
+				CHARTED.length * CHART_HEIGHT + (FlightRecorderSampler.HOT_METHOD_COUNT + 2) * LINE_HEIGHT, -1);
+
+		_swingComponent.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) DumpFlightRecording();
+			}
+		});
+	}
+
+	@Override
+	protected String[] getArgs() {
+		return null;
+	}
+
+	/**
+	 * Dumps the last few minutes of flight recording - if a profiler monitor is shown.
+	 */
+	public static void DumpFlightRecording() {
+		if (JFR_UNAVAILABLE_REASON != null) {
+			MessageBay.errorMessage("Flight recorder unavailable: " + JFR_UNAVAILABLE_REASON);
+			return;
+		}
+
+		try {
+			File file = FlightRecorderSampler.getInstance().dumpRecording();
+			MessageBay.displayMessage("Flight recording dumped to " + file.getAbsolutePath());
+		} catch (IOException e) {
+			MessageBay.errorMessage("Failed to dump flight recording: " + e.getMessage());
+		} catch (LinkageError e) {
+			MessageBay.errorMessage("Flight recorder unavailable: " + e);
+		}
+	}
+
+	@Override
+	public void flushed(FlightRecorderSampler sampler) {
+		invalidateSelf();
+	}
+
+	@Override
+	public void paint(Graphics g) {
+
+		int width = getWidth();
+		int height = getHeight();
+
+		g.setColor(Color.WHITE);
+		g.fillRect(getX(), getY(), width, height);
+
+		// The sampler is never touched while unavailable
+		if (unavailableReason != null) {
+			g.setColor(Color.RED);
+			g.setFont(TEXT_FONT);
+			g.drawString("Flight recorder unavailable:", getX() + 2, getY() + LINE_HEIGHT);
+			g.drawString(unavailableReason, getX() + 2, getY() + 2 * LINE_HEIGHT);
+			paintLink((Graphics2D)g);
+			return;
+		}
+
+		FlightRecorderSampler sampler = FlightRecorderSampler.getInstance();
+
+		int y = getY();
+		for (int i = 0; i < CHARTED.length; i++) {
+			paintChart(g, sampler, CHARTED[i], CHART_LABELS[i], y, width);
+			y += CHART_HEIGHT;
+		}
+
+		g.setColor(Color.BLACK);
+		g.setFont(TEXT_FONT);
+		int bottom = getY() + height;
+
+		String monitor = sampler.getTopContendedMonitor();
+		if (monitor != null && y + LINE_HEIGHT <= bottom) {
+			y += LINE_HEIGHT;
+			g.drawString("Most contended: " + monitor, getX() + 2, y);
+		}
+
+		if (y + LINE_HEIGHT <= bottom) {
+			y += LINE_HEIGHT;
+			g.setFont(LABEL_FONT);
+			g.drawString("Hot methods", getX() + 2, y);
+			g.setFont(TEXT_FONT);
+		}
+
+		for (String method : sampler.getHotMethods()) {
+			if (y + LINE_HEIGHT > bottom) break;
+			y += LINE_HEIGHT;
+			g.drawString(method, getX() + 2, y);
+		}
+
+		paintLink((Graphics2D)g);
+	}
+
+	/**
+	 * Draws a metrics recent history right to left, newest at the right edge, scaled
+	 * to its peak.
+	 */
+	private void paintChart(Graphics g, FlightRecorderSampler sampler, FlightRecorderSampler.Metric metric,
+			String label, int top, int width) {
+
+		if (history.length != width) {
+			history = new double[width];
+			sparkX = new int[width];
+			sparkY = new int[width];
+		}
+
+		int n = sampler.copyHistory(metric, history);
+
+		double peak = 0;
+		for (int i = 0; i < n; i++) peak = Math.max(peak, history[i]);
+
+		// Loads are on a fixed scale so that they can be compared
+		boolean isLoad = metric == FlightRecorderSampler.Metric.JVM_CPU
+			|| metric == FlightRecorderSampler.Metric.MACHINE_CPU;
+		if (isLoad) peak = 1.0;
+
+		g.setColor(CHART_BACKCOLOR);
+		g.fillRect(getX(), top + 1, width, CHART_HEIGHT - 2);
+
+		int bottom = top + CHART_HEIGHT - 2;
+		int left = getX() + width - n;
+
+		if (n >= 2 && peak > 0) {
+			for (int i = 0; i < n; i++) {
+				sparkX[i] = left + i;
+				sparkY[i] = bottom - (int)((CHART_HEIGHT - 4) * Math.min(1.0, history[i] / peak));
+			}
+			g.setColor(SPARKLINE_COLOR);
+			g.drawPolyline(sparkX, sparkY, n);
+		}
+
+		double latest = sampler.getLatest(metric);
+		String value;
+		if (isLoad) {
+			value = (int)(latest * 100) + "%";
+		} else if (metric == FlightRecorderSampler.Metric.ALLOCATION_RATE) {
+			value = WidgetMemoryAttribution.formatBytes((long)latest);
+		} else {
+			value = (int)latest + "ms";
+		}
+
+		g.setColor(Color.BLACK);
+		g.setFont(LABEL_FONT);
+		g.drawString(label + ": " + value, getX() + 2, top + LINE_HEIGHT);
+	}
+
+	private void setUnavailable(Throwable cause) {
+		unavailableReason = cause.getMessage();
+		if (unavailableReason == null) unavailableReason = cause.getClass().getSimpleName();
+		invalidateSelf();
+	}
+
+	@Override
+	protected void onParentStateChanged(int eventType) {
+		super.onParentStateChanged(eventType);
+
+		switch (eventType) {
+		case ItemParentStateChangedEvent.EVENT_TYPE_HIDDEN:
+		case ItemParentStateChangedEvent.EVENT_TYPE_REMOVED:
+		case ItemParentStateChangedEvent.EVENT_TYPE_REMOVED_VIA_OVERLAY:
+			if (isListening) {
+				FlightRecorderSampler.getInstance().removeListener(this);
+				isListening = false;
+			}
+			break;
+
+		case ItemParentStateChangedEvent.EVENT_TYPE_ADDED:
+		case ItemParentStateChangedEvent.EVENT_TYPE_ADDED_VIA_OVERLAY:
+		case ItemParentStateChangedEvent.EVENT_TYPE_SHOWN:
+		case ItemParentStateChangedEvent.EVENT_TYPE_SHOWN_VIA_OVERLAY:
+			if (!isListening && unavailableReason == null) {
+				try {
+					FlightRecorderSampler.getInstance().addListener(this);
+					isListening = true;
+				} catch (RuntimeException e) { // E.g. flight recorder disabled in this JVM
+					setUnavailable(e);
+				} catch (LinkageError e) { // E.g. part of jdk.jfr missing
+					setUnavailable(e);
+				}
+			}
+			break;
+
+		}
+
+	}
+}
@@ -0,0 +1,363 @@
+package org.expeditee.items.widgets;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Samples the JVMs memory, garbage collection and threads on a single daemon thread
+ * - shared by every monitoring widget.
+ *
+ * Samples are kept in primitive ring buffers, one per {@link Metric}. There is only
+ * ever one writer (the sampling thread), which writes each sample under a {@link StampedLock}.
+ * Readers copy optimistically and copy again if a sample was written meanwhile - so readers
+ * never hold up the sampler, and reading history does not allocate. Neither does
+ * sampling - except for the non heap usage, which the JVM only reports through new objects,
+ * so is only sampled every {@value #NON_HEAP_SAMPLE_EVERY} samples and carried forward in between.
+ *
+ * The thread only runs while there are listeners.
+ */
+public final class RuntimeSampler {
+
+	public static final String INTERVAL_PROPERTY = "expeditee.widgets.sampler.interval";
+
+	/** Milliseconds between samples. */
+	static final long INTERVAL_MS = Math.max(10, Long.getLong(INTERVAL_PROPERTY, 250));
+
+	/** How many samples are kept per metric. */
+	public static final int HISTORY_SIZE = 1024;
+
+	/** How many samples the non heap usage is carried forward for. */
+	static final int NON_HEAP_SAMPLE_EVERY = 8;
+
+	/**
+	 * What is sampled. Memory in bytes. GC_COUNT and GC_TIME (milliseconds) are totals since
+	 * startup over all collectors - the difference between samples is the collections
+	 * and pause time in between.
+	 */
+	public enum Metric {
+		HEAP_USED,
+		HEAP_COMMITTED,
+		HEAP_MAX,
+		NON_HEAP_USED,
+		DIRECT_USED,
+		MAPPED_USED,
+		GC_COUNT,
+		GC_TIME,
+		THREAD_COUNT
+	}
+
+	private static final Metric[] METRICS = Metric.values();
+
+	private static RuntimeSampler _instance = null;
+
+	private final long[][] history = new long[METRICS.length][HISTORY_SIZE]; // written under writeLock
+
+	private final long[] sampleTimes = new long[HISTORY_SIZE]; // written under writeLock
+
+	/** Keeps a stopping thread from writing alongside its replacement. Readers never take it. */
+	private final Object writeLock = new Object();
+
+	/** Held while writing a sample. Readers copy under optimistic reads. */
+	private final StampedLock historyLock = new StampedLock();
+
+	/** The amount of samples taken. Written after the sample - publishing it to readers. */
+	private volatile long sampleCount = 0;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final AtomicBoolean isNotifyPending = new AtomicBoolean(false);
+
+	private final Runnable notifier = new ListenerNotifier();
+
+	/** The values of the sample being taken. */
+	private final long[] values = new long[METRICS.length]; // written under writeLock
+
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private final GarbageCollectorMXBean[] collectorBeans = // An array: iterating allocates nothing
+		ManagementFactory.getGarbageCollectorMXBeans().toArray(new GarbageCollectorMXBean[0]);
+	private final BufferPoolMXBean directPool;
+	private final BufferPoolMXBean mappedPool;
+	private final MemoryPoolMXBean[] nonHeapPools;
+
+	private SamplerThread samplerThread = null; // guarded by this
+
+	RuntimeSampler() {
+		BufferPoolMXBean direct = null, mapped = null;
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) direct = pool;
+			else if ("mapped".equals(pool.getName())) mapped = pool;
+		}
+		directPool = direct;
+		mappedPool = mapped;
+
+		List<MemoryPoolMXBean> nonHeap = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.NON_HEAP) nonHeap.add(pool);
+		}
+		nonHeapPools = nonHeap.toArray(new MemoryPoolMXBean[nonHeap.size()]);
+	}
+
+	public static synchronized RuntimeSampler getInstance() {
+		if (_instance == null) _instance = new RuntimeSampler();
+		return _instance;
+	}
+
+	/**
+	 * Notified on the swing thread after new samples are taken. Notifications are
+	 * coalesced: a busy swing thread gets one notification for many samples.
+	 */
+	public interface Listener {
+		void sampled(RuntimeSampler sampler);
+	}
+
+	/**
+	 * Starts sampling if not already.
+	 *
+	 * @param listener
+	 * 		Must not be null. Ignored if already added.
+	 */
+	public synchronized void addListener(Listener listener) {
+		if (listener == null) throw new NullPointerException("listener");
+		if (listeners.contains(listener)) return;
+		listeners.add(listener);
+
+		if (samplerThread == null) {
+			samplerThread = new SamplerThread();
+			samplerThread.start();
+		}
+	}
+
+	/**
+	 * Stops sampling once the last listener is removed.
+	 *
+	 * @param listener
+	 * 		The listener to remove.
+	 */
+	public synchronized void removeListener(Listener listener) {
+		listeners.remove(listener);
+
+		if (listeners.isEmpty() && samplerThread != null) {
+			samplerThread.interrupt();
+			samplerThread = null;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The amount of samples taken since startup. Only the last {@link #HISTORY_SIZE} are kept.
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * @return
+	 * 		The most recent value. Zero if nothing sampled yet.
+	 */
+	public long getLatest(Metric metric) {
+		long count = sampleCount;
+		if (count == 0) return 0;
+		return history[metric.ordinal()][(int)((count - 1) % HISTORY_SIZE)];
+	}
+
+	/**
+	 * @return
+	 * 		The time in milliseconds of the most recent sample. Zero if nothing sampled yet.
+	 */
+	public long getLatestTime() {
+		long count = sampleCount;
+		if (count == 0) return 0;
+		return sampleTimes[(int)((count - 1) % HISTORY_SIZE)];
+	}
+
+	/**
+	 * Copies the most recent values of a metric - oldest first. Allocates nothing,
+	 * so can be called on every paint.
+	 *
+	 * @param metric
+	 * 		The metric to copy.
+	 *
+	 * @param dest
+	 * 		Filled from the start. Up to {@link #HISTORY_SIZE} values are copied.
+	 *
+	 * @return
+	 * 		The amount of values copied.
+	 */
+	public int copyHistory(Metric metric, long[] dest) {
+		long[] ring = history[metric.ordinal()];
+
+		while (true) {
+			long stamp = historyLock.tryOptimisticRead();
+			long count = sampleCount;
+			int n = (int)Math.min(Math.min(dest.length, HISTORY_SIZE), count);
+
+			for (int i = 0; i < n; i++) {
+				dest[i] = ring[(int)((count - n + i) % HISTORY_SIZE)];
+			}
+
+			// If a sample was written while copying, the copy may be torn: copy again
+			if (historyLock.validate(stamp)) return n;
+		}
+	}
+
+	/**
+	 * Copies the most recent values of several metrics from the same samples - so that the
+	 * values at an index were all sampled together. Allocates nothing.
+	 *
+	 * @param metrics
+	 * 		The metrics to copy.
+	 *
+	 * @param dest
+	 * 		One array per metric, each filled from the start. Up to {@link #HISTORY_SIZE} values
+	 * 		are copied - and no more than fit the shortest array.
+	 *
+	 * @return
+	 * 		The amount of values copied per metric.
+	 */
+	public int copyHistory(Metric[] metrics, long[][] dest) {
+		if (dest.length < metrics.length) throw new IllegalArgumentException("dest is shorter than metrics");
+
+		int length = HISTORY_SIZE;
+		for (int m = 0; m < metrics.length; m++) {
+			length = Math.min(length, dest[m].length);
+		}
+
+		while (true) {
+			long stamp = historyLock.tryOptimisticRead();
+			long count = sampleCount;
+			int n = (int)Math.min(length, count);
+
+			for (int m = 0; m < metrics.length; m++) {
+				long[] ring = history[metrics[m].ordinal()];
+				long[] values = dest[m];
+				for (int i = 0; i < n; i++) {
+					values[i] = ring[(int)((count - n + i) % HISTORY_SIZE)];
+				}
+			}
+
+			// One stamp over every metric: a sample written meanwhile would misalign them
+			if (historyLock.validate(stamp)) return n;
+		}
+	}
+
+	/**
+	 * Sampling thread only. Must hold writeLock.
+	 */
+	private void sample() {
+
+		Runtime runtime = Runtime.getRuntime();
+		long committed = runtime.totalMemory();
+
+		long gcCount = 0, gcTime = 0;
+		for (GarbageCollectorMXBean gc : collectorBeans) {
+			gcCount += Math.max(0, gc.getCollectionCount());
+			gcTime += Math.max(0, gc.getCollectionTime());
+		}
+
+		// Carried forward in between: getUsage allocates
+		if (sampleCount % NON_HEAP_SAMPLE_EVERY == 0) {
+			long nonHeapUsed = 0;
+			for (MemoryPoolMXBean pool : nonHeapPools) {
+				if (pool.isValid()) nonHeapUsed += pool.getUsage().getUsed();
+			}
+			values[Metric.NON_HEAP_USED.ordinal()] = nonHeapUsed;
+		}
+
+		values[Metric.HEAP_USED.ordinal()] = committed - runtime.freeMemory();
+		values[Metric.HEAP_COMMITTED.ordinal()] = committed;
+		values[Metric.HEAP_MAX.ordinal()] = runtime.maxMemory();
+		values[Metric.DIRECT_USED.ordinal()] = (directPool == null) ? 0 : directPool.getMemoryUsed();
+		values[Metric.MAPPED_USED.ordinal()] = (mappedPool == null) ? 0 : mappedPool.getMemoryUsed();
+		values[Metric.GC_COUNT.ordinal()] = gcCount;
+		values[Metric.GC_TIME.ordinal()] = gcTime;
+		values[Metric.THREAD_COUNT.ordinal()] = threadBean.getThreadCount();
+
+		publish(values, System.currentTimeMillis());
+	}
+
+	/**
+	 * Writes a sample and publishes it to readers. Only one thread may write at a time.
+	 *
+	 * @param sample
+	 * 		The value of each metric - indexed by ordinal.
+	 *
+	 * @param time
+	 * 		When the sample was taken.
+	 */
+	void publish(long[] sample, long time) {
+
+		long stamp = historyLock.writeLock();
+		try {
+			long count = sampleCount;
+			int index = (int)(count % HISTORY_SIZE);
+
+			for (int m = 0; m < METRICS.length; m++) {
+				history[m][index] = sample[m];
+			}
+			sampleTimes[index] = time;
+
+			sampleCount = count + 1; // Publish
+		} finally {
+			historyLock.unlockWrite(stamp);
+		}
+
+		if (isNotifyPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(notifier);
+		}
+	}
+
+	private class ListenerNotifier implements Runnable {
+		@Override
+		public void run() {
+			isNotifyPending.set(false);
+			for (Listener listener : listeners) {
+				listener.sampled(RuntimeSampler.this);
+			}
+		}
+	}
+
+	private class SamplerThread extends Thread {
+
+		SamplerThread() {
+			super("Runtime-Sampler");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			long next = System.nanoTime();
+			while (!isInterrupted()) {
+				try {
+					synchronized(writeLock) {
+						sample();
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+
+				next += TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS);
+				long wait;
+				while ((wait = next - System.nanoTime()) > 0 && !isInterrupted()) {
+					LockSupport.parkNanos(this, wait);
+				}
+
+				// Fell behind (e.g. the machine slept): do not try to catch up
+				if (next < System.nanoTime()) next = System.nanoTime();
+			}
+		}
+	}
+
+}
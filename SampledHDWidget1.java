@@ -15,6 +15,12 @@ public class SampledHDWidget1 extends HeavyDutyInteractiveWidget {
 	private boolean isIndeterminant = false;
 	private Object loadInterrupter = new Object();
 	
+	/** The bytes the sample pretends to hold once fully loaded. */
+	private static final long SAMPLE_DATA_BYTES = 4L * 1024L * 1024L;
+	
+	/** A running total of the data loaded so far. */
+	private volatile long loadedBytes = 0;
+	
 	public SampledHDWidget1(Text source, String[] args) {
 		super(source, new JPanel(new FlowLayout()), 50, 600, 50, 400, 1);
 		
@@ -69,6 +75,13 @@ public class SampledHDWidget1 extends HeavyDutyInteractiveWidget {
 		int totalLoadTime = 2000 + (Math.abs(rand.nextInt()) % 10000);
 		int loadTimeLeft = totalLoadTime;
 		
+		// Carry on from where the last load got to
+		int[] checkpoint = (int[])takeLoadCheckpoint();
+		if (checkpoint != null) {
+			totalLoadTime = checkpoint[0];
+			loadTimeLeft = checkpoint[1];
+		}
+		
 		while (loadTimeLeft > 0) {
 			int waitTime = 100 + (Math.abs(rand.nextInt()) % 2000);
 			
@@ -81,12 +94,14 @@ public class SampledHDWidget1 extends HeavyDutyInteractiveWidget {
 			if (hasCancelBeenRequested()) {
 				// Release resources
 				System.out.println(getClass().getName() + ":INTERUPTED LOAD - EXITING");
+				saveLoadCheckpoint(new int[] {totalLoadTime, loadTimeLeft});
 				return LOAD_STATE_INCOMPLETED;
 			}
 			
 			float perc = ((float)(totalLoadTime - loadTimeLeft)) / ((float)totalLoadTime);
 			if (perc <= 0.0f) perc = 0.01f;
 			updateLoadPercentage(perc);
+			loadedBytes = (long)(SAMPLE_DATA_BYTES * perc);
 			
 			if (perc > 0.4f && perc < 1.0f) {
 				setLoadScreenMessage("Loading metadata...");
@@ -95,9 +110,15 @@ public class SampledHDWidget1 extends HeavyDutyInteractiveWidget {
 			loadTimeLeft -= waitTime;
 		}
 
+		loadedBytes = SAMPLE_DATA_BYTES;
 		return LOAD_STATE_COMPLETED;
 	}
 	
+	@Override
+	public long getEstimatedRetainedSize() {
+		return loadedBytes;
+	}
+	
 	@Override
 	public int getLoadDelayTime() {
 		return 1000;
@@ -121,11 +142,13 @@ public class SampledHDWidget1 extends HeavyDutyInteractiveWidget {
 	@Override
 	protected void unloadWidgetData() {
 		System.out.println(getClass().getName() + ":unloadWidgetData");
+		loadedBytes = 0;
 	}
 
 	@Override
 	protected void tempUnloadWidgetData() {
 		System.out.println(getClass().getName() + ":tempUnloadWidgetData");
+		loadedBytes = 0;
 	}
 
 
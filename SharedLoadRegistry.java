@@ -0,0 +1,231 @@
+package org.expeditee.items.widgets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Shares loads between heavy duty widgets that show the same resource - e.g. a widget and its
+ * overlays, its copies, or the same widget on several cached frames.
+ *
+ * Loads are keyed by resource. The first widget to load a resource computes it, and any other
+ * widget loading the same resource at the same time waits for that computation rather than
+ * repeating it. They all then hold the one resulting payload - which must therefore be immutable.
+ * The payload is reference counted: it is dropped (and closed, if Closeable) once every widget
+ * holding it has unloaded.
+ *
+ * If the widget computing a resource is cancelled, one of the waiting widgets takes over.
+ * If the computation fails, every widget waiting on it fails with the same cause.
+ *
+ * @see HeavyDutyInteractiveWidget#getLoadResourceKey()
+ * @see HeavyDutyInteractiveWidget#loadShared(SharedLoadRegistry.Loader)
+ */
+public final class SharedLoadRegistry {
+
+	/**
+	 * Computes a shared payload.
+	 */
+	public interface Loader<T> {
+
+		/**
+		 * Runs on the loading thread of the first widget to load the resource.
+		 *
+		 * @return
+		 * 		The immutable payload. Must not be null.
+		 *
+		 * @throws Exception
+		 * 		If failed to load.
+		 */
+		T load() throws Exception;
+	}
+
+	private static SharedLoadRegistry _instance = new SharedLoadRegistry();
+
+	/** The loaded or loading resources. */
+	private final Map<Object, Entry> entries = new HashMap<Object, Entry>();
+
+	private SharedLoadRegistry() {
+	}
+
+	public static SharedLoadRegistry getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * @return
+	 * 		The amount of resources currently loaded or loading.
+	 */
+	public synchronized int getSharedCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Acquires a reference to a resource - loading it if no other widget is.
+	 * Blocks until the resource is loaded, or until the acquiring load is cancelled.
+	 *
+	 * @param key
+	 * 		The resource key. Must not be null.
+	 *
+	 * @param loader
+	 * 		Loads the resource if no other widget is. Must not be null.
+	 *
+	 * @param token
+	 * 		The cancellation token of the acquiring load. Must not be null.
+	 *
+	 * @return
+	 * 		The held entry. Release it once no longer needed.
+	 *
+	 * @throws CancellationException
+	 * 		If the acquiring load was cancelled. Nothing is held.
+	 *
+	 * @throws Exception
+	 * 		If failed to load the resource. Nothing is held.
+	 */
+	Entry acquire(Object key, Loader<?> loader, LoadCancellationToken token) throws Exception {
+		assert(key != null);
+		assert(loader != null);
+		assert(token != null);
+
+		// Wakes this widget while it waits on another widgets load - e.g. if the user leaves its frame
+		final CompletableFuture<Object> cancelled = new CompletableFuture<Object>();
+		token.onCancel(new Runnable() {
+			@Override
+			public void run() {
+				cancelled.complete(null);
+			}
+		});
+
+		while (true) {
+
+			token.throwIfCancelled();
+
+			Entry entry;
+			boolean isLoader;
+
+			synchronized(this) {
+				entry = entries.get(key);
+				isLoader = (entry == null);
+				if (isLoader) {
+					entry = new Entry(key);
+					entries.put(key, entry);
+				}
+				entry.refCount++;
+			}
+
+			if (isLoader) {
+				load(entry, loader, token);
+				return entry;
+			}
+
+			try {
+				CompletableFuture.anyOf(entry.payload, cancelled).get();
+
+				if (!entry.payload.isDone()) { // Cancelled while waiting
+					release(entry);
+					throw new CancellationException("Load cancelled");
+				}
+				return entry;
+
+			} catch (InterruptedException e) {
+				release(entry);
+				throw new CancellationException("Load cancelled");
+
+			} catch (ExecutionException e) {
+				release(entry);
+				if (!(e.getCause() instanceof CancellationException)) {
+					throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+				}
+				// The loading widget was cancelled: take over
+			}
+		}
+	}
+
+	/**
+	 * Loads the resource for the widgets waiting on the entry.
+	 */
+	private void load(Entry entry, Loader<?> loader, LoadCancellationToken token) throws Exception {
+
+		Object payload;
+
+		try {
+			payload = loader.load();
+			if (payload == null) throw new NullPointerException("Loaded a null shared payload");
+
+		} catch (Exception e) {
+			// Waiting widgets take over if this load was cancelled - otherwise they fail too
+			loadFailed(entry, token.isCancelled() ? new CancellationException("Load cancelled") : e);
+			throw e;
+
+		} catch (Error e) {
+			loadFailed(entry, e);
+			throw e;
+		}
+
+		entry.payload.complete(payload);
+	}
+
+	private void loadFailed(Entry entry, Throwable cause) {
+		synchronized(this) {
+			if (entries.get(entry.key) == entry) entries.remove(entry.key);
+		}
+		release(entry);
+		entry.payload.completeExceptionally(cause);
+	}
+
+	/**
+	 * Releases a reference. The payload is dropped once no references remain.
+	 *
+	 * @param entry
+	 * 		An entry returned by acquire. Must only be released once per acquire.
+	 */
+	void release(Entry entry) {
+		assert(entry != null);
+
+		Object toClose = null;
+
+		synchronized(this) {
+			assert(entry.refCount > 0);
+			if (--entry.refCount > 0) return;
+			if (entries.get(entry.key) == entry) entries.remove(entry.key);
+			toClose = entry.getPayload();
+		}
+
+		if (toClose instanceof Closeable) {
+			try {
+				((Closeable)toClose).close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A shared resource and the number of widgets that hold it.
+	 */
+	static final class Entry {
+
+		private final Object key;
+
+		private final CompletableFuture<Object> payload = new CompletableFuture<Object>();
+
+		private int refCount = 0; // guarded by registry
+
+		private Entry(Object key) {
+			this.key = key;
+		}
+
+		/**
+		 * @return
+		 * 		The payload. Null if not loaded.
+		 */
+		Object getPayload() {
+			// getNow throws if the load failed
+			return (payload.isDone() && !payload.isCompletedExceptionally()) ? payload.getNow(null) : null;
+		}
+	}
+
+}
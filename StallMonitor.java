@@ -0,0 +1,133 @@
+package org.expeditee.items.widgets;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.JPanel;
+
+import org.expeditee.items.ItemParentStateChangedEvent;
+import org.expeditee.items.Text;
+
+/**
+ * A widget for displaying how responsive the swing thread is, and which widgets have
+ * stalled it - see {@link EDTWatchdog}.
+ *
+ * Double click to reset the statistics.
+ */
+public class StallMonitor extends InteractiveWidget implements EDTWatchdog.Listener {
+
+	private boolean isListening = false;
+
+	private long lastLatency = 0;
+	private long stallCount = 0;
+	private List<EDTWatchdog.StallStatistics> stalls = Collections.emptyList();
+
+	private static final Font LABEL_FONT = new Font("Arial", Font.BOLD, 10);
+
+	private static final Font TEXT_FONT = new Font("Arial", Font.PLAIN, 10);
+
+	private static final int BAR_HEIGHT = 14;
+
+	private static final int LINE_HEIGHT = 12;
+
+	public StallMonitor(Text source, String[] args) {
+		super(source, new JPanel(), 160, -1, BAR_HEIGHT + 3 * LINE_HEIGHT, -1);
+
+		_swingComponent.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					EDTWatchdog.getInstance().reset();
+					watched(EDTWatchdog.getInstance());
+				}
+			}
+		});
+	}
+
+	@Override
+	protected String[] getArgs() {
+		return null;
+	}
+
+	@Override
+	public void watched(EDTWatchdog watchdog) {
+		lastLatency = watchdog.getLastLatency();
+		stallCount = watchdog.getStallCount();
+		stalls = watchdog.getStallStatistics();
+		invalidateSelf();
+	}
+
+	@Override
+	public void paint(Graphics g) {
+
+		int width = getWidth();
+		int height = getHeight();
+
+		g.setColor(Color.WHITE);
+		g.fillRect(getX(), getY(), width, height);
+
+		// Latency relative to the stall threshold
+		float latency = Math.min(1.0f, lastLatency / (float)EDTWatchdog.THRESHOLD_MS);
+		Color latencyColor;
+		if (latency >= 1.0f) {
+			latencyColor = Color.RED;
+		} else if (latency > 0.5f) {
+			latencyColor = Color.ORANGE;
+		} else {
+			latencyColor = Color.GREEN;
+		}
+
+		g.setColor(latencyColor);
+		g.fillRect(getX(), getY(), (int)(width * latency), BAR_HEIGHT);
+
+		g.setColor(Color.BLACK);
+		g.setFont(LABEL_FONT);
+		g.drawString("EDT latency " + lastLatency + "ms, " + stallCount + " stalls", getX() + 2, getY() + BAR_HEIGHT - 3);
+
+		g.setFont(TEXT_FONT);
+		int y = getY() + BAR_HEIGHT;
+		int bottom = getY() + height;
+
+		for (EDTWatchdog.StallStatistics s : stalls) {
+			if (y + LINE_HEIGHT > bottom) break;
+			y += LINE_HEIGHT;
+			g.drawString(s.toString(), getX() + 2, y);
+		}
+
+		paintLink((Graphics2D)g);
+	}
+
+	@Override
+	protected void onParentStateChanged(int eventType) {
+		super.onParentStateChanged(eventType);
+
+		switch (eventType) {
+		case ItemParentStateChangedEvent.EVENT_TYPE_HIDDEN:
+		case ItemParentStateChangedEvent.EVENT_TYPE_REMOVED:
+		case ItemParentStateChangedEvent.EVENT_TYPE_REMOVED_VIA_OVERLAY:
+			if (isListening) {
+				EDTWatchdog.getInstance().removeListener(this);
+				isListening = false;
+			}
+			break;
+
+		case ItemParentStateChangedEvent.EVENT_TYPE_ADDED:
+		case ItemParentStateChangedEvent.EVENT_TYPE_ADDED_VIA_OVERLAY:
+		case ItemParentStateChangedEvent.EVENT_TYPE_SHOWN:
+		case ItemParentStateChangedEvent.EVENT_TYPE_SHOWN_VIA_OVERLAY:
+			if (!isListening) {
+				EDTWatchdog.getInstance().addListener(this);
+				isListening = true;
+			}
+			break;
+
+		}
+
+	}
+}
@@ -1,12 +1,30 @@
 package org.expeditee.items.widgets;
 
-import java.util.Collection;
+import java.lang.ref.SoftReference;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.swing.SwingUtilities;
+
+import org.expeditee.gui.DisplayIO;
 import org.expeditee.gui.DisplayIOObserver;
+import org.expeditee.gui.Frame;
 import org.expeditee.gui.FrameIO;
 
 
@@ -15,16 +33,85 @@ import org.expeditee.gui.FrameIO;
  * a little while ... e.g. Not cached once the user has traversed 50 or so frames after
  * where the widget was first loaded.
  * 
+ * Widgets are also evicted early when the heap runs low: once the heap usage passes the budget
+ * ({@value #HEAP_BUDGET_PROPERTY} system property, as a fraction of the maximum heap - 0.75 by default)
+ * the widgets that have gone unseen for longest and hold the most memory
+ * (see {@link InteractiveWidget#getEstimatedRetainedSize()}) are expired until the
+ * usage is expected to be back under budget. The heap pools usage thresholds are set to the budget,
+ * so the JVM notifies when it is passed - even between frame changes. The usage is taken from the
+ * last collection, less what has been evicted since - so that evictions are not repeated before
+ * the evicted widgets have been collected. Widgets that do not estimate their size rank as the
+ * smallest, and only {@value #MAX_UNSIZED_EVICTIONS} are evicted per collection.
+ * 
+ * Expiry is scheduled on a timing wheel of navigation epochs (one epoch per frame change):
+ * a cached widget sits in the slot of the epoch at which it expires, so a frame change only
+ * visits the widgets due to expire - whose visibility is checked once the navigation has finished.
+ * Thread safe.
+ * 
+ * Expiry is also aware of where the user is working: a widget due to expire is kept while its
+ * frame is within {@value #NEIGHBOURHOOD_PROPERTY} system property link hops (2 by default) of the
+ * current frame - in the link graph learnt from the frames visited (see {@link FrameLinkGraph}).
+ * The neighbourhood never reaches as far as a widgets cache depth: a widget with a cache depth
+ * of 2 is only kept while one hop away, and one with a depth of 1 is never kept. Note that on a hub
+ * frame - one linking to many - the neighbourhood is large, so keeps many widgets cached.
+ * When evicting for memory, widgets further away are evicted first.
+ * 
+ * Expired widgets can hand their data to a retention tier rather than discarding it
+ * (see {@link HeavyDutyInteractiveWidget#retainWidgetData()}). Retained data is only softly
+ * referenced, so the GC clears it once memory is needed - but until then the widget is restored
+ * from it instantly when next shown, rather than loading again.
+ * 
  * @author Brook Novak
  *
  */
 public final class WidgetCacheManager implements DisplayIOObserver {
 	
-	private static HashMap<HeavyDutyInteractiveWidget, Integer> transientWidgets = new HashMap<HeavyDutyInteractiveWidget, Integer>();
+	public static final String HEAP_BUDGET_PROPERTY = "expeditee.widgets.cache.heapbudget";
+	
+	private static final double HEAP_BUDGET = parseHeapBudget();
+	
+	public static final String NEIGHBOURHOOD_PROPERTY = "expeditee.widgets.cache.neighbourhood";
+	
+	/** Widgets within this many hops of the current frame are not expired. */
+	private static final int NEIGHBOURHOOD_HOPS = Math.max(0, Integer.getInteger(NEIGHBOURHOOD_PROPERTY, 2));
+	
+	/** How far to look when ranking widgets for eviction. */
+	private static final int MAX_EVICTION_HOPS = NEIGHBOURHOOD_HOPS + 6;
+	
+	/** Widgets of unknown size to evict per collection: how much they free cannot be counted. */
+	static final int MAX_UNSIZED_EVICTIONS = 2;
+	
+	// What has been evicted since the last collection - swing thread only
+	private static long lastCollectionCount = -1;
+	private static long evictedSinceCollection = 0;
+	private static int unsizedEvictedSinceCollection = 0;
+	
+	private static final FrameLinkGraph linkGraph = new FrameLinkGraph(); // swing thread only
+	
+	/** One slot per possible cache depth: every scheduled expiry is within a rotation. */
+	private static final int WHEEL_SIZE = FrameIO.MAX_CACHE + 1;
+	
+	private static final Object lock = new Object();
+	
+	private static HashMap<HeavyDutyInteractiveWidget, CacheEntry> transientWidgets = new HashMap<HeavyDutyInteractiveWidget, CacheEntry>(); // guarded by lock
+	
+	/** The entries to expire at each epoch - indexed by epoch modulo WHEEL_SIZE. */
+	private static final List<Set<CacheEntry>> expiryWheel = createExpiryWheel(); // guarded by lock
+	
+	/** Increments on every frame change. */
+	private static long navigationEpoch = 0; // guarded by lock
+	
+	/** The retention tier: weak keys so that retained data does not keep deleted widgets alive. */
+	private static final Map<HeavyDutyInteractiveWidget, SoftReference<Object>> retainedData = 
+		new WeakHashMap<HeavyDutyInteractiveWidget, SoftReference<Object>>(); // guarded by lock
+	
+	private static long retainedHitCount = 0; // guarded by lock
+	private static long retainedMissCount = 0; // guarded by lock
 	
 	private static WidgetCacheManager _instance = new WidgetCacheManager();
 	
 	private WidgetCacheManager() {
+		installHeapThresholds();
 	}
 	
 	public static WidgetCacheManager getInstance() {
@@ -33,10 +120,12 @@ public final class WidgetCacheManager implements DisplayIOObserver {
 	
 	/**
 	 * @return
-	 * 		An unmodifiable set of the current transientWidgets that are registered.
+	 * 		An unmodifiable snapshot of the current transientWidgets that are registered.
 	 */
 	public static Set<HeavyDutyInteractiveWidget> getTransientWidgets() {
-		return Collections.unmodifiableSet(transientWidgets.keySet());
+		synchronized(lock) {
+			return Collections.unmodifiableSet(new HashSet<HeavyDutyInteractiveWidget>(transientWidgets.keySet()));
+		}
 	}
 	
 	public static void cacheWidget(HeavyDutyInteractiveWidget widget) {
@@ -45,14 +134,108 @@ public final class WidgetCacheManager implements DisplayIOObserver {
 		if (widget.getCacheDepth() > FrameIO.MAX_CACHE ||
 				widget.getCacheDepth() <= 0) return;
 		
-		// If widget already exists, then the current count will be reset (overriden to zero)
-		transientWidgets.put(widget, new Integer(0));
+		synchronized(lock) {
+			// If widget already exists, then its expiry will be reset
+			CacheEntry entry = transientWidgets.get(widget);
+			if (entry == null) {
+				entry = new CacheEntry(widget);
+				transientWidgets.put(widget, entry);
+			}
+			touch(entry);
+		}
 		
 	}
 	
 	public static void uncacheWidget(HeavyDutyInteractiveWidget widget) {
 		if (widget == null) throw new NullPointerException("widget");
-		transientWidgets.remove(widget);
+		synchronized(lock) {
+			CacheEntry entry = transientWidgets.remove(widget);
+			if (entry != null) getSlot(entry.expiryEpoch).remove(entry);
+			retainedData.remove(widget);
+		}
+	}
+	
+	/**
+	 * Retains the data of an expired widget - until the GC needs the memory.
+	 * 
+	 * @param widget
+	 * 		Must not be null.
+	 * 
+	 * @param data
+	 * 		Must not be null. Replaces any data already retained for the widget.
+	 */
+	static void retainWidgetData(HeavyDutyInteractiveWidget widget, Object data) {
+		assert(widget != null);
+		assert(data != null);
+		synchronized(lock) {
+			retainedData.put(widget, new SoftReference<Object>(data));
+		}
+	}
+	
+	/**
+	 * Takes the data retained for a widget.
+	 * 
+	 * @param widget
+	 * 		Must not be null.
+	 * 
+	 * @return
+	 * 		The retained data. Null if none was retained or the GC has cleared it.
+	 */
+	static Object reclaimWidgetData(HeavyDutyInteractiveWidget widget) {
+		assert(widget != null);
+		synchronized(lock) {
+			SoftReference<Object> ref = retainedData.remove(widget);
+			if (ref == null) return null;
+			
+			Object data = ref.get();
+			if (data == null) retainedMissCount++;
+			else retainedHitCount++;
+			return data;
+		}
+	}
+	
+	/**
+	 * @return
+	 * 		The amount of widgets restored from their retained data.
+	 */
+	public static long getRetainedHitCount() {
+		synchronized(lock) {
+			return retainedHitCount;
+		}
+	}
+	
+	/**
+	 * @return
+	 * 		The amount of widgets that had to load again because their retained data had been cleared.
+	 */
+	public static long getRetainedMissCount() {
+		synchronized(lock) {
+			return retainedMissCount;
+		}
+	}
+	
+	/**
+	 * Expires a cached widget now - regardless of its cache depth. Must be on the swing thread.
+	 * 
+	 * @param widget
+	 * 		Must not be null.
+	 * 
+	 * @return
+	 * 		True if expired. False if not cached or visible.
+	 */
+	static boolean forceExpire(HeavyDutyInteractiveWidget widget) {
+		assert(widget != null);
+		
+		if (widget.isVisible()) return false;
+		
+		synchronized(lock) {
+			CacheEntry entry = transientWidgets.remove(widget);
+			if (entry == null) return false;
+			getSlot(entry.expiryEpoch).remove(entry);
+		}
+		
+		widget.expire();
+		return true;
 	}
 
 
@@ -65,35 +248,337 @@ public final class WidgetCacheManager implements DisplayIOObserver {
 	 */
 	@Override
 	public void frameChanged() {
+		
+		// Committed once the navigation has been checked: see AfterNavigation
+		Object event = WidgetFlightRecorder.getInstance().beginCacheFrameChanged();
+
+		// Re-rank pending loads for the new frame
+		HeavyDutyLoadScheduler.getInstance().frameChanged();
 
-		// Increment all cache counters
-		Collection<HeavyDutyInteractiveWidget> toCheck = new LinkedList<HeavyDutyInteractiveWidget>(
-				transientWidgets.keySet());
+		List<CacheEntry> due = null;
 		
-		// Check all heavyduty widgets that have limited cache
-		for (HeavyDutyInteractiveWidget tw : toCheck) {
+		synchronized(lock) {
+			navigationEpoch++;
 			
-			Integer count = transientWidgets.remove(tw); // get rid of reference
-			if (count == null) continue;
+			// Only entries expiring this epoch are in the slot: depths are within a rotation
+			Set<CacheEntry> slot = getSlot(navigationEpoch);
+			if (!slot.isEmpty()) {
+				due = new ArrayList<CacheEntry>(slot);
+				slot.clear();
+			}
+		}
+		
+		// Check visibility and memory once the navigation has finished
+		SwingUtilities.invokeLater(new AfterNavigation(DisplayIO.getCurrentFrame(), due, event));
+	}
+	
+	/**
+	 * Resets the expiry of an entry - as if just seen. Must hold lock.
+	 */
+	private static void touch(CacheEntry entry) {
+		if (entry.expiryEpoch >= 0) getSlot(entry.expiryEpoch).remove(entry);
+		entry.lastSeenEpoch = navigationEpoch;
+		entry.expiryEpoch = navigationEpoch + entry.widget.getCacheDepth();
+		getSlot(entry.expiryEpoch).add(entry);
+	}
+	
+	/**
+	 * Must hold lock.
+	 */
+	private static Set<CacheEntry> getSlot(long epoch) {
+		return expiryWheel.get((int)(epoch % WHEEL_SIZE));
+	}
+	
+	private static List<Set<CacheEntry>> createExpiryWheel() {
+		List<Set<CacheEntry>> wheel = new ArrayList<Set<CacheEntry>>(WHEEL_SIZE);
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel.add(new HashSet<CacheEntry>());
+		}
+		return wheel;
+	}
+	
+	/**
+	 * Expires the given entries - unless their widgets are visible, in the users working
+	 * neighbourhood or have been seen since. Must be on the swing thread.
+	 */
+	private static void expireDue(List<CacheEntry> due) {
+		
+		for (CacheEntry entry : due) {
 			
-			int newCount = count;
-			newCount++;
-
-			if (tw.isVisible()) { // Reset cache counter if visible
+			synchronized(lock) {
+				if (transientWidgets.get(entry.widget) != entry || entry.expiryEpoch > navigationEpoch) 
+					continue; // Uncached or seen since
+			}
+			
+			int neighbourhood = getNeighbourhoodHops(entry.widget);
+			boolean isNearby = entry.widget.isVisible() 
+				|| linkGraph.getDistance(entry.widget.getParentFrame(), neighbourhood) <= neighbourhood;
+			
+			synchronized(lock) {
+				if (transientWidgets.get(entry.widget) != entry || entry.expiryEpoch > navigationEpoch) 
+					continue;
 				
-				transientWidgets.put(tw, new Integer(0));
+				if (isNearby) { // Reset expiry if visible or in the neighbourhood
+					touch(entry);
+					continue;
+				}
 				
-			} else if (newCount >= tw.getCacheDepth()) { // Expire if stale
+				transientWidgets.remove(entry.widget);
+			}
+			
+			// Ensure that the heavy duty widgets data is handled correctly (i.e. saving)
+			entry.widget.expire();
+		}
+	}
 	
-				// Ensure that the heavy duty widgets data is handled correctly (i.e. saving)
-				tw.expire();
-				
-			} else { // keep reference, with new count
-				
-				transientWidgets.put(tw, newCount);
-				
+	/**
+	 * @return
+	 * 		How many hops away the widget is kept from expiring. Within its cache depth: a widget
+	 * 		that expires after a single frame change is not kept for being one hop away.
+	 */
+	static int getNeighbourhoodHops(HeavyDutyInteractiveWidget tw) {
+		return getNeighbourhoodHops(tw.getCacheDepth());
+	}
+	
+	static int getNeighbourhoodHops(int cacheDepth) {
+		return Math.max(0, Math.min(NEIGHBOURHOOD_HOPS, cacheDepth - 1));
+	}
+	
+	/**
+	 * Expires the least recently seen, largest widgets until the heap usage is expected
+	 * to be back under budget. Must be on the swing thread.
+	 *
+	 * @return
+	 * 		The amount of widgets expired.
+	 */
+	static int evictToHeapBudget() {
+	
+		// The usage is as of the last collection: what was evicted since has not been freed yet
+		long collectionCount = getCollectionCount();
+		if (collectionCount != lastCollectionCount) {
+			lastCollectionCount = collectionCount;
+			evictedSinceCollection = 0;
+			unsizedEvictedSinceCollection = 0;
+		}
+	
+		long excess = getHeapExcess() - evictedSinceCollection;
+		if (excess <= 0) return 0;
+	
+		final Map<HeavyDutyInteractiveWidget, Long> framesUnseen = new HashMap<HeavyDutyInteractiveWidget, Long>();
+		synchronized(lock) {
+			for (CacheEntry entry : transientWidgets.values()) {
+				framesUnseen.put(entry.widget, navigationEpoch - entry.lastSeenEpoch);
+			}
+		}
+		
+		final Map<HeavyDutyInteractiveWidget, Double> scores = new HashMap<HeavyDutyInteractiveWidget, Double>();
+		for (Map.Entry<HeavyDutyInteractiveWidget, Long> entry : framesUnseen.entrySet()) {
+			HeavyDutyInteractiveWidget tw = entry.getKey();
+			if (tw.isVisible()) continue;
+			int hops = linkGraph.getDistance(tw.getParentFrame(), MAX_EVICTION_HOPS);
+			scores.put(tw, getEvictionScore(tw, entry.getValue(), hops));
+		}
+		
+		List<HeavyDutyInteractiveWidget> candidates = new ArrayList<HeavyDutyInteractiveWidget>(scores.keySet());
+		
+		// Furthest, least recently seen and largest first
+		Collections.sort(candidates, new Comparator<HeavyDutyInteractiveWidget>() {
+			@Override
+			public int compare(HeavyDutyInteractiveWidget a, HeavyDutyInteractiveWidget b) {
+				return Double.compare(scores.get(b), scores.get(a));
 			}
+		});
+		
+		int evicted = 0;
+		for (HeavyDutyInteractiveWidget tw : candidates) {
+			if (excess <= 0) break;
+			
+			// How much an unsized widget frees is unknown: only evict a few before the next collection
+			long size = tw.getEstimatedRetainedSize();
+			if (size <= 0 && unsizedEvictedSinceCollection >= MAX_UNSIZED_EVICTIONS) continue;
 			
+			synchronized(lock) {
+				CacheEntry entry = transientWidgets.remove(tw);
+				if (entry == null) continue; // Uncached or expired since
+				getSlot(entry.expiryEpoch).remove(entry);
+			}
+			
+			tw.expire();
+			evicted++;
+			
+			// Freed once collected: count the estimate so as to not evict more than needed
+			if (size > 0) {
+				excess -= size;
+				evictedSinceCollection += size;
+			} else {
+				unsizedEvictedSinceCollection++;
+			}
+		}
+		
+		return evicted;
+	}
+	
+	private static double getEvictionScore(HeavyDutyInteractiveWidget tw, long framesUnseen, int hops) {
+		return (double)Math.max(1, tw.getEstimatedRetainedSize()) * (1 + framesUnseen) * (1 + hops);
+	}
+	
+	/**
+	 * @return
+	 * 		The bytes by which the heap pools with thresholds are over budget, as of their last collection. Zero if under.
+	 */
+	private static long getHeapExcess() {
+		List<MemoryUsage> usages = new ArrayList<MemoryUsage>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (!isBudgeted(pool)) continue;
+			// Prefer the usage after the last collection: the current usage includes garbage
+			MemoryUsage usage = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsage() : null;
+			if (usage == null) usage = pool.getUsage();
+			if (usage != null) usages.add(usage);
+		}
+		return getHeapExcess(usages, HEAP_BUDGET);
+	}
+	
+	/**
+	 * @param usages
+	 * 		The usage of each budgeted pool.
+	 * 
+	 * @param budget
+	 * 		The fraction of each pools maximum that may be used.
+	 * 
+	 * @return
+	 * 		The bytes by which the pools are over budget. Pools under budget do not offset
+	 * 		those over: objects are not moved between them to make room. Zero if none are over.
+	 */
+	static long getHeapExcess(List<MemoryUsage> usages, double budget) {
+		long excess = 0;
+		for (MemoryUsage usage : usages) {
+			if (usage.getMax() <= 0) continue;
+			excess += Math.max(0, usage.getUsed() - (long)(usage.getMax() * budget));
+		}
+		return excess;
+	}
+	
+	/**
+	 * @return
+	 * 		The total amount of collections so far.
+	 */
+	private static long getCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount()); // Negative if undefined
+		}
+		return count;
+	}
+	
+	/**
+	 * @return
+	 * 		True if the pool is part of the heap and supports usage thresholds - i.e. the long lived pools.
+	 */
+	private static boolean isBudgeted(MemoryPoolMXBean pool) {
+		return pool.isValid() && pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+			&& pool.getUsage() != null && pool.getUsage().getMax() > 0;
+	}
+	
+	private static long getBudget(MemoryUsage usage) {
+		return (long)(usage.getMax() * HEAP_BUDGET);
+	}
+	
+	/**
+	 * Sets the usage thresholds of the heap pools to the budget, and evicts when notified that they were passed.
+	 */
+	private static void installHeapThresholds() {
+		try {
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (!isBudgeted(pool)) continue;
+				long budget = getBudget(pool.getUsage());
+				pool.setUsageThreshold(budget);
+				if (pool.isCollectionUsageThresholdSupported()) pool.setCollectionUsageThreshold(budget);
+			}
+	
+			((NotificationEmitter)ManagementFactory.getMemoryMXBean()).addNotificationListener(
+					new HeapThresholdListener(), null, null);
+	
+		} catch (RuntimeException e) { // E.g. not permitted: evict on frame changes only
+			e.printStackTrace();
+		}
+	}
+	
+	private static double parseHeapBudget() {
+		try {
+			double budget = Double.parseDouble(System.getProperty(HEAP_BUDGET_PROPERTY, "0.75"));
+			if (budget > 0.0 && budget <= 1.0) return budget;
+		} catch (NumberFormatException e) { /* Consume: use default */ }
+		return 0.75;
+	}
+	
+	/**
+	 * A cached widget and when it expires.
+	 */
+	private static final class CacheEntry {
+		
+		final HeavyDutyInteractiveWidget widget;
+		
+		long lastSeenEpoch = -1; // guarded by lock
+		long expiryEpoch = -1; // guarded by lock
+		
+		CacheEntry(HeavyDutyInteractiveWidget widget) {
+			this.widget = widget;
+		}
+	}
+	
+	/**
+	 * Runs on the swing thread once a frame change has finished.
+	 */
+	private static class AfterNavigation implements Runnable {
+		
+		private final Frame frame;
+		private final List<CacheEntry> due;
+		private final Object event;
+		
+		/**
+		 * @param event
+		 * 		The frame changed flight recorder event - committed once done. Null if not recording.
+		 */
+		AfterNavigation(Frame frame, List<CacheEntry> due, Object event) {
+			this.frame = frame;
+			this.due = due;
+			this.event = event;
+		}
+		
+		@Override
+		public void run() {
+			if (frame != null) linkGraph.visited(frame);
+			if (due != null) expireDue(due);
+			evictToHeapBudget();
+			
+			if (event != null) {
+				int cachedCount;
+				synchronized(lock) {
+					cachedCount = transientWidgets.size();
+				}
+				WidgetFlightRecorder.getInstance().commitCacheFrameChanged(event,
+						(frame == null) ? null : frame.getName(), cachedCount, (due == null) ? 0 : due.size());
+			}
+		}
+	}
+	
+	/**
+	 * Notified by the JVM on its own thread: evicts on the swing thread.
+	 */
+	private static class HeapThresholdListener implements NotificationListener {
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+	
+			String type = notification.getType();
+			if (!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+					&& !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) return;
+	
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					evictToHeapBudget();
+				}
+			});
 		}
 	}
 	
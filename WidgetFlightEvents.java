@@ -0,0 +1,215 @@
+package org.expeditee.items.widgets;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import org.expeditee.gui.Frame;
+
+/**
+ * JDK Flight Recorder events for the widget lifecycle - so that a recording shows where
+ * navigation time goes: creating widgets, attaching and detaching them, loading, saving and
+ * unloading heavy duty widgets, cache expiry and data frame refreshes.
+ *
+ * When recording is off the events cost next to nothing: the widget class and frame name are
+ * only looked up if the event will be committed.
+ *
+ * Only loaded through {@link WidgetFlightRecorder} - so that widgets still work on runtimes
+ * without jdk.jfr. Use like:
+ *
+ * <pre>
+ * Object event = WidgetFlightRecorder.getInstance().beginRefresh();
+ * ...
+ * WidgetFlightRecorder.getInstance().commitRefresh(event, widget);
+ * </pre>
+ */
+final class WidgetFlightEvents {
+
+	private static final String CATEGORY = "Expeditee";
+
+	private static final String SUB_CATEGORY = "Widgets";
+
+	private WidgetFlightEvents() {
+	}
+
+	/**
+	 * @return
+	 * 		The name of the frame. Null if none.
+	 */
+	static String getFrameName(Frame frame) {
+		return (frame == null) ? null : frame.getName();
+	}
+
+	/**
+	 * An event about a single widget.
+	 */
+	abstract static class WidgetEvent extends Event {
+
+		@Label("Widget Class")
+		String widgetClass;
+
+		@Label("Frame")
+		String frame;
+
+		/**
+		 * Sets the widget class and frame. Only call once shouldCommit is true.
+		 */
+		void setWidget(InteractiveWidget widget) {
+			widgetClass = widget.getClass().getName();
+			frame = getFrameName(widget.getParentFrame());
+		}
+	}
+
+	@Name("org.expeditee.WidgetCreate")
+	@Label("Widget Create")
+	@Description("A widget created from its @iw text item")
+	@Category({ CATEGORY, SUB_CATEGORY })
+	static final class Create extends WidgetEvent {
+	}
+
+	@Name("org.expeditee.WidgetParentStateChanged")
+	@Label("Widget Parent State Changed")
+	@Description("A widget attached to or detached from a frame - e.g. shown, hidden, added or removed")
+	@Category({ CATEGORY, SUB_CATEGORY })
+	static final class ParentStateChanged extends WidgetEvent {
+
+		@Label("Event Type")
+		@Description("The ItemParentStateChangedEvent type")
+		int eventType;
+	}
+
+	@Name("org.expeditee.HeavyDutyWidgetPhase")
+	@Label("Heavy Duty Widget Phase")
+	@Description("A load, save, unload or journal compaction of a heavy duty widget")
+	@Category({ CATEGORY, SUB_CATEGORY })
+	static final class HeavyDutyPhase extends WidgetEvent {
+
+		@Label("Phase")
+		String phase;
+
+		@Label("Load State")
+		@Description("The load state after the phase")
+		float loadState;
+	}
+
+	@Name("org.expeditee.WidgetCacheFrameChanged")
+	@Label("Widget Cache Frame Changed")
+	@Description("The widget cache reacting to a frame change - until the expiry and memory checks after the navigation are done")
+	@Category({ CATEGORY, SUB_CATEGORY })
+	static final class CacheFrameChanged extends Event {
+
+		@Label("Frame")
+		String frame;
+
+		@Label("Cached Widgets")
+		int cachedCount;
+
+		@Label("Due Widgets")
+		@Description("Widgets whose cache depth ran out - expired unless still nearby")
+		int dueCount;
+	}
+
+	@Name("org.expeditee.DataFrameRefresh")
+	@Label("Data Frame Refresh")
+	@Description("A data frame widget refreshing from its data frame")
+	@Category({ CATEGORY, SUB_CATEGORY })
+	static final class Refresh extends WidgetEvent {
+	}
+
+	/**
+	 * Records the events. Created reflectively by {@link WidgetFlightRecorder} once jdk.jfr is known to be present.
+	 */
+	static final class Recorder extends WidgetFlightRecorder {
+
+		Recorder() {
+		}
+
+		/**
+		 * Ends the event.
+		 *
+		 * @return
+		 * 		True if the event should be committed.
+		 */
+		private static boolean end(Object token) {
+			Event event = (Event)token;
+			event.end();
+			return event.shouldCommit();
+		}
+
+		private static void commit(Object token, InteractiveWidget widget) {
+			if (end(token)) {
+				WidgetEvent event = (WidgetEvent)token;
+				event.setWidget(widget);
+				event.commit();
+			}
+		}
+
+		private static Object begin(Event event) {
+			event.begin();
+			return event;
+		}
+
+		@Override
+		Object beginCreate() {
+			return begin(new Create());
+		}
+
+		@Override
+		void commitCreate(Object token, InteractiveWidget widget) {
+			commit(token, widget);
+		}
+
+		@Override
+		Object beginParentStateChanged() {
+			return begin(new ParentStateChanged());
+		}
+
+		@Override
+		void commitParentStateChanged(Object token, InteractiveWidget widget, int eventType) {
+			((ParentStateChanged)token).eventType = eventType;
+			commit(token, widget);
+		}
+
+		@Override
+		Object beginHeavyDutyPhase() {
+			return begin(new HeavyDutyPhase());
+		}
+
+		@Override
+		void commitHeavyDutyPhase(Object token, HeavyDutyInteractiveWidget widget, String phase, float loadState) {
+			HeavyDutyPhase event = (HeavyDutyPhase)token;
+			event.phase = phase;
+			event.loadState = loadState;
+			commit(token, widget);
+		}
+
+		@Override
+		Object beginCacheFrameChanged() {
+			return begin(new CacheFrameChanged());
+		}
+
+		@Override
+		void commitCacheFrameChanged(Object token, String frameName, int cachedCount, int dueCount) {
+			if (end(token)) {
+				CacheFrameChanged event = (CacheFrameChanged)token;
+				event.frame = frameName;
+				event.cachedCount = cachedCount;
+				event.dueCount = dueCount;
+				event.commit();
+			}
+		}
+
+		@Override
+		Object beginRefresh() {
+			return begin(new Refresh());
+		}
+
+		@Override
+		void commitRefresh(Object token, InteractiveWidget widget) {
+			commit(token, widget);
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.expeditee.items.widgets;
+
+/**
+ * Records the widget lifecycle as JDK Flight Recorder events - see {@link WidgetFlightEvents}.
+ *
+ * JFR is optional: the jdk.jfr module may be missing from the runtime. So nothing else refers to
+ * the events directly, they are only reached through {@link #getInstance()} - which loads them
+ * if jdk.jfr is present, and otherwise records nothing.
+ *
+ * Each begin returns a token for the matching commit. The token is null if not recording.
+ */
+abstract class WidgetFlightRecorder {
+
+	private static final String EVENTS_RECORDER_CLASS = "org.expeditee.items.widgets.WidgetFlightEvents$Recorder";
+
+	private static final WidgetFlightRecorder _instance = createInstance();
+
+	static WidgetFlightRecorder getInstance() {
+		return _instance;
+	}
+
+	private static WidgetFlightRecorder createInstance() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (WidgetFlightRecorder)Class.forName(EVENTS_RECORDER_CLASS).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) { // No jdk.jfr: record nothing
+		} catch (LinkageError e) {
+		}
+		return new WidgetFlightRecorder() {
+		};
+	}
+
+	Object beginCreate() {
+		return null;
+	}
+
+	void commitCreate(Object token, InteractiveWidget widget) {
+	}
+
+	Object beginParentStateChanged() {
+		return null;
+	}
+
+	void commitParentStateChanged(Object token, InteractiveWidget widget, int eventType) {
+	}
+
+	Object beginHeavyDutyPhase() {
+		return null;
+	}
+
+	/**
+	 * @param phase
+	 * 		The load, save, unload or journal compaction.
+	 *
+	 * @param loadState
+	 * 		The load state after the phase.
+	 */
+	void commitHeavyDutyPhase(Object token, HeavyDutyInteractiveWidget widget, String phase, float loadState) {
+	}
+
+	Object beginCacheFrameChanged() {
+		return null;
+	}
+
+	/**
+	 * @param frameName
+	 * 		The frame navigated to. Null if none.
+	 *
+	 * @param dueCount
+	 * 		The widgets whose cache depth ran out.
+	 */
+	void commitCacheFrameChanged(Object token, String frameName, int cachedCount, int dueCount) {
+	}
+
+	Object beginRefresh() {
+		return null;
+	}
+
+	void commitRefresh(Object token, InteractiveWidget widget) {
+	}
+
+}
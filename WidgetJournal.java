@@ -0,0 +1,366 @@
+package org.expeditee.items.widgets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only change journal for saving the state of a heavy duty widget incrementally.
+ *
+ * Rather than rewriting its whole state at every save point, a widget appends only what
+ * has changed (its deltas) to the journal. The journal consists of two files:
+ * <ul>
+ * 		<li>&lt;base&gt;.snapshot - the full state as of a sequence number
+ * 		<li>&lt;base&gt;.journal - the deltas since, each with a sequence number and checksum
+ * </ul>
+ * Once the journal grows past the compaction threshold, a new snapshot is written (by the widgets
+ * {@link Snapshotter}) and the journal is emptied. On load the widget replays the snapshot and then the deltas.
+ *
+ * The journal is crash safe: a delta torn by a crash fails its checksum and is dropped along with
+ * anything after it, and snapshots are replaced atomically with deltas already in the snapshot
+ * being skipped on replay.
+ *
+ * Not thread safe across processes. Thread safe within the process.
+ *
+ * @see HeavyDutyInteractiveWidget#getJournal()
+ */
+public final class WidgetJournal {
+
+	/** The default journal size in bytes at which the journal needs compacting. */
+	public static final long DEFAULT_COMPACTION_THRESHOLD = 1024 * 1024;
+
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+	private static final String JOURNAL_SUFFIX = ".journal";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/** sequence (long), length (int), checksum (int) */
+	private static final int RECORD_HEADER_SIZE = 16;
+
+	/**
+	 * Writes the full state of a widget.
+	 */
+	public interface Snapshotter {
+		/**
+		 * @param out
+		 * 		Where to write the state. Must not be closed.
+		 */
+		void writeSnapshot(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Rebuilds the state of a widget from its journal.
+	 */
+	public interface Replayer {
+
+		/**
+		 * Invoked first - only if there is a snapshot.
+		 *
+		 * @param in
+		 * 		The snapshot as written by the Snapshotter. Must not be closed.
+		 */
+		void replaySnapshot(InputStream in) throws IOException;
+
+		/**
+		 * Invoked for every delta since the snapshot - in the order that they were appended.
+		 *
+		 * @param delta
+		 * 		The delta as appended.
+		 */
+		void replayDelta(ByteBuffer delta) throws IOException;
+	}
+
+	private final File snapshotFile;
+	private final File journalFile;
+
+	private final Snapshotter snapshotter;
+
+	private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+	/** The open journal - positioned at the end of the last valid delta. Null if not open. */
+	private RandomAccessFile journal = null;
+
+	/** The sequence number of the last delta included in the snapshot. */
+	private long snapshotSequence = 0;
+
+	private long nextSequence = 1;
+
+	private boolean hasUncommittedDeltas = false;
+
+	/**
+	 * @param baseFile
+	 * 		The path of the journal files, without suffix. Must not be null.
+	 *
+	 * @param snapshotter
+	 * 		Writes the full state of the widget when compacting. Must not be null.
+	 */
+	public WidgetJournal(File baseFile, Snapshotter snapshotter) {
+		if (baseFile == null) throw new NullPointerException("baseFile");
+		if (snapshotter == null) throw new NullPointerException("snapshotter");
+		this.snapshotter = snapshotter;
+		snapshotFile = new File(baseFile.getPath() + SNAPSHOT_SUFFIX);
+		journalFile = new File(baseFile.getPath() + JOURNAL_SUFFIX);
+	}
+
+	/**
+	 * @param threshold
+	 * 		The journal size in bytes at which the journal needs compacting.
+	 */
+	public synchronized void setCompactionThreshold(long threshold) {
+		compactionThreshold = threshold;
+	}
+
+	/**
+	 * Appends a delta. It is not durable until committed.
+	 *
+	 * @param delta
+	 * 		The bytes from its position to its limit. Must not be null.
+	 * 		The position is not changed.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void append(ByteBuffer delta) throws IOException {
+		if (delta == null) throw new NullPointerException("delta");
+
+		open();
+
+		ByteBuffer payload = delta.duplicate();
+
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		header.putLong(nextSequence);
+		header.putInt(payload.remaining());
+		header.putInt((int)crc.getValue());
+		header.flip();
+
+		while (header.hasRemaining()) journal.getChannel().write(header);
+		while (payload.hasRemaining()) journal.getChannel().write(payload);
+
+		nextSequence++;
+		hasUncommittedDeltas = true;
+	}
+
+	/**
+	 * @see #append(ByteBuffer)
+	 */
+	public void append(byte[] delta) throws IOException {
+		if (delta == null) throw new NullPointerException("delta");
+		append(ByteBuffer.wrap(delta));
+	}
+
+	/**
+	 * Makes all appended deltas durable.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void commit() throws IOException {
+		if (journal != null && hasUncommittedDeltas) {
+			journal.getChannel().force(false);
+			hasUncommittedDeltas = false;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The size in bytes of the deltas since the last snapshot.
+	 */
+	public synchronized long getJournalSize() {
+		try {
+			if (journal != null) return journal.length();
+		} catch (IOException e) { /* Consume */ }
+		return journalFile.length();
+	}
+
+	/**
+	 * @return
+	 * 		True if the journal has passed the compaction threshold.
+	 */
+	public synchronized boolean needsCompaction() {
+		return getJournalSize() >= compactionThreshold;
+	}
+
+	/**
+	 * Writes a new snapshot of the full state, then empties the journal. The state written by
+	 * the snapshotter must include every delta appended so far.
+	 *
+	 * @throws IOException
+	 * 		If failed to write the snapshot - in which case the previous snapshot and journal remain.
+	 */
+	public synchronized void compact() throws IOException {
+
+		open();
+		commit();
+
+		long lastSequence = nextSequence - 1;
+
+		File tempFile = new File(snapshotFile.getPath() + TEMP_SUFFIX);
+		FileOutputStream fileOut = new FileOutputStream(tempFile);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			out.writeLong(lastSequence);
+			snapshotter.writeSnapshot(out);
+			out.flush();
+			fileOut.getChannel().force(true);
+		} finally {
+			fileOut.close();
+		}
+
+		Files.move(tempFile.toPath(), snapshotFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		snapshotSequence = lastSequence;
+
+		// If crashes before this then the deltas are skipped on replay: they are in the snapshot
+		journal.setLength(0);
+		journal.seek(0);
+		journal.getChannel().force(true);
+	}
+
+	/**
+	 * Replays the snapshot and the committed deltas since.
+	 *
+	 * @param replayer
+	 * 		Must not be null.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void replay(Replayer replayer) throws IOException {
+		if (replayer == null) throw new NullPointerException("replayer");
+
+		open();
+
+		if (snapshotFile.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+			try {
+				in.readLong(); // sequence
+				replayer.replaySnapshot(in);
+			} finally {
+				in.close();
+			}
+		}
+
+		scan(replayer);
+	}
+
+	/**
+	 * Releases the open journal. It is re-opened when next used.
+	 */
+	public synchronized void close() {
+		if (journal != null) {
+			try {
+				commit();
+				journal.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Closes and deletes the snapshot and journal.
+	 */
+	public synchronized void delete() {
+		close();
+		snapshotFile.delete();
+		journalFile.delete();
+	}
+
+	/**
+	 * Opens the journal if not open: drops any torn deltas and resolves the sequence numbers.
+	 * Must hold lock.
+	 */
+	private void open() throws IOException {
+		if (journal != null) return;
+
+		snapshotSequence = 0;
+		if (snapshotFile.exists()) {
+			DataInputStream in = new DataInputStream(new FileInputStream(snapshotFile));
+			try {
+				snapshotSequence = in.readLong();
+			} catch (EOFException e) { /* Consume: empty snapshot */
+			} finally {
+				in.close();
+			}
+		}
+
+		File parent = journalFile.getAbsoluteFile().getParentFile();
+		if (parent != null) parent.mkdirs();
+
+		journal = new RandomAccessFile(journalFile, "rw");
+		nextSequence = snapshotSequence + 1;
+
+		long validLength = scan(null);
+		if (validLength < journal.length()) {
+			journal.setLength(validLength); // Torn by a crash
+		}
+		journal.seek(validLength);
+	}
+
+	/**
+	 * Reads through the deltas - stopping at the first torn delta. Must hold lock.
+	 *
+	 * @param replayer
+	 * 		Replays the deltas that are not in the snapshot. Null to only scan.
+	 *
+	 * @return
+	 * 		The length of the journal up to the end of the last valid delta.
+	 */
+	private long scan(Replayer replayer) throws IOException {
+
+		long validLength = 0;
+		long fileLength = journalFile.length();
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+		try {
+			while (true) {
+
+				long sequence;
+				int length;
+				int checksum;
+				byte[] payload;
+
+				try {
+					sequence = in.readLong();
+					length = in.readInt();
+					checksum = in.readInt();
+					if (length < 0 || length > fileLength - validLength - RECORD_HEADER_SIZE) break; // Torn header
+					payload = new byte[length];
+					in.readFully(payload);
+				} catch (EOFException e) {
+					break;
+				}
+
+				CRC32 crc = new CRC32();
+				crc.update(payload);
+				if ((int)crc.getValue() != checksum) break;
+
+				validLength += RECORD_HEADER_SIZE + length;
+
+				if (sequence <= snapshotSequence) continue; // Already in the snapshot
+
+				if (sequence >= nextSequence) nextSequence = sequence + 1;
+
+				if (replayer != null) replayer.replayDelta(ByteBuffer.wrap(payload));
+			}
+		} finally {
+			in.close();
+		}
+
+		return validLength;
+	}
+
+}
@@ -0,0 +1,380 @@
+package org.expeditee.items.widgets;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.MessageBay;
+import org.expeditee.items.Item;
+
+/**
+ * Attributes heap usage to the widgets holding it - so that the widget (and frame) eating
+ * the heap can be found.
+ *
+ * By default a widgets size is what it reports via
+ * {@link InteractiveWidget#getEstimatedRetainedSize()}. If the JVM was started with this
+ * class as a java agent (-javaagent), setting {@value #MODE_PROPERTY} to "agent" measures
+ * widgets instead: the objects reachable from each widget are walked and sized through
+ * {@link Instrumentation}. Expeditee items, frames, swing components and classes are shared
+ * with the rest of the application, so are not walked into. Neither is memory held natively
+ * - e.g. by a JavaFX web view. Walking takes a while, so widgets are only measured when asked
+ * for - e.g. by {@link #DisplayWidgetMemory()} - never on a schedule.
+ *
+ * Swing thread only.
+ */
+public final class WidgetMemoryAttribution {
+
+	public static final String MODE_PROPERTY = "expeditee.widgets.memory.mode";
+
+	/** Measuring is bounded: objects past this are not counted. */
+	private static final int MAX_MEASURED_OBJECTS = 250000;
+
+	private static final Color MESSAGE_COLOR = Color.BLACK;
+
+	private static volatile Instrumentation instrumentation = null;
+
+	private static WidgetMemoryAttribution _instance = null;
+
+	/** Every widget alive - weakly held. */
+	private final Map<InteractiveWidget, Boolean> widgets = new WeakHashMap<InteractiveWidget, Boolean>(); // guarded by this
+
+	/** The reference fields of each class walked. */
+	private final Map<Class<?>, Field[]> referenceFields = new HashMap<Class<?>, Field[]>();
+
+	private WidgetMemoryAttribution() {
+	}
+
+	public static synchronized WidgetMemoryAttribution getInstance() {
+		if (_instance == null) _instance = new WidgetMemoryAttribution();
+		return _instance;
+	}
+
+	/**
+	 * Entry point when loaded as a java agent at startup.
+	 */
+	public static void premain(String args, Instrumentation inst) {
+		instrumentation = inst;
+	}
+
+	/**
+	 * Entry point when attached as a java agent at runtime.
+	 */
+	public static void agentmain(String args, Instrumentation inst) {
+		instrumentation = inst;
+	}
+
+	/**
+	 * @return
+	 * 		True if widgets are measured through the instrumentation agent rather than
+	 * 		by their own estimates.
+	 */
+	public static boolean isMeasuring() {
+		return instrumentation != null && "agent".equalsIgnoreCase(System.getProperty(MODE_PROPERTY));
+	}
+
+	/**
+	 * Displays the widgets and widget classes holding the most memory in the message bay
+	 * - linking to the frames the widgets are on.
+	 */
+	public static void DisplayWidgetMemory() {
+		Breakdown breakdown = getInstance().takeBreakdown(true);
+
+		MessageBay.displayMessage("Widget memory (" + (breakdown.isMeasured() ? "measured" : "estimated") + "): "
+				+ formatBytes(breakdown.getTotal()) + " over " + breakdown.getWidgets().size() + " widgets");
+
+		for (ClassUsage usage : breakdown.getClasses()) {
+			if (usage.getBytes() == 0) break;
+			MessageBay.displayMessage("  " + usage);
+		}
+
+		for (WidgetUsage usage : breakdown.getWidgets()) {
+			if (usage.getBytes() == 0) break;
+			MessageBay.displayMessage("  " + usage, usage.getFrameName(), null, MESSAGE_COLOR);
+		}
+	}
+
+	/**
+	 * Invoked when a widget is created.
+	 */
+	synchronized void register(InteractiveWidget widget) {
+		widgets.put(widget, Boolean.TRUE);
+	}
+
+	/**
+	 * @param widget
+	 * 		Must not be null.
+	 *
+	 * @return
+	 * 		The bytes attributed to the widget.
+	 */
+	public long getRetainedSize(InteractiveWidget widget) {
+		if (isMeasuring()) {
+			return measure(widget);
+		}
+		return Math.max(0, widget.getEstimatedRetainedSize());
+	}
+
+	/**
+	 * Attributes memory to every widget alive.
+	 *
+	 * @param measure
+	 * 		True to measure the widgets if {@link #isMeasuring()}. Measuring walks every widget,
+	 * 		so is too slow to do periodically. False to always use the widgets estimates.
+	 *
+	 * @return
+	 * 		The widgets and widget classes - largest first. Never null.
+	 */
+	public Breakdown takeBreakdown(boolean measure) {
+
+		boolean isMeasured = measure && isMeasuring();
+
+		List<InteractiveWidget> alive;
+		synchronized(this) {
+			alive = new ArrayList<InteractiveWidget>(widgets.keySet());
+		}
+
+		List<WidgetUsage> widgetUsages = new ArrayList<WidgetUsage>(alive.size());
+		Map<String, ClassUsage> classUsages = new HashMap<String, ClassUsage>();
+		long total = 0;
+
+		for (InteractiveWidget widget : alive) {
+			long bytes = isMeasured ? measure(widget) : Math.max(0, widget.getEstimatedRetainedSize());
+			Frame frame = widget.getParentFrame();
+
+			WidgetUsage usage = new WidgetUsage(widget.getClass().getSimpleName(),
+					(frame == null) ? null : frame.getName(), bytes);
+			widgetUsages.add(usage);
+
+			ClassUsage classUsage = classUsages.get(usage.getWidgetClass());
+			if (classUsage == null) {
+				classUsage = new ClassUsage(usage.getWidgetClass());
+				classUsages.put(usage.getWidgetClass(), classUsage);
+			}
+			classUsage.add(bytes);
+
+			total += bytes;
+		}
+
+		List<ClassUsage> classes = new ArrayList<ClassUsage>(classUsages.values());
+		Collections.sort(classes, new Comparator<ClassUsage>() {
+			@Override
+			public int compare(ClassUsage a, ClassUsage b) {
+				return Long.compare(b.getBytes(), a.getBytes());
+			}
+		});
+
+		Collections.sort(widgetUsages, new Comparator<WidgetUsage>() {
+			@Override
+			public int compare(WidgetUsage a, WidgetUsage b) {
+				return Long.compare(b.getBytes(), a.getBytes());
+			}
+		});
+
+		return new Breakdown(widgetUsages, classes, total, isMeasured);
+	}
+
+	/**
+	 * Sizes the objects reachable from the widget - without walking into what is shared.
+	 */
+	private long measure(InteractiveWidget widget) {
+		Instrumentation inst = instrumentation;
+
+		IdentityHashMap<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+		LinkedList<Object> toVisit = new LinkedList<Object>();
+		toVisit.add(widget);
+		seen.put(widget, Boolean.TRUE);
+
+		long bytes = 0;
+
+		while (!toVisit.isEmpty() && seen.size() < MAX_MEASURED_OBJECTS) {
+			Object obj = toVisit.removeFirst();
+			bytes += inst.getObjectSize(obj);
+
+			Class<?> c = obj.getClass();
+			if (c.isArray()) {
+				if (c.getComponentType().isPrimitive()) continue;
+				for (int i = Array.getLength(obj) - 1; i >= 0; i--) {
+					visit(Array.get(obj, i), widget, seen, toVisit);
+				}
+				continue;
+			}
+
+			for (Field field : getReferenceFields(c)) {
+				try {
+					visit(field.get(obj), widget, seen, toVisit);
+				} catch (IllegalAccessException e) { // Sized, but not walked into
+				}
+			}
+		}
+
+		return bytes;
+	}
+
+	private static void visit(Object obj, InteractiveWidget root, IdentityHashMap<Object, Boolean> seen, LinkedList<Object> toVisit) {
+		if (obj == null || seen.containsKey(obj) || isShared(obj, root)) return;
+		seen.put(obj, Boolean.TRUE);
+		toVisit.add(obj);
+	}
+
+	private static boolean isShared(Object obj, InteractiveWidget root) {
+		return (obj instanceof InteractiveWidget && obj != root)
+			|| obj instanceof Item
+			|| obj instanceof Frame
+			|| obj instanceof Component
+			|| obj instanceof Class
+			|| obj instanceof ClassLoader
+			|| obj instanceof Thread
+			|| obj instanceof Reference; // Weak and soft references do not retain
+	}
+
+	/**
+	 * @return
+	 * 		The non-static, non-primitive fields of the class and its super classes that can be read.
+	 */
+	private Field[] getReferenceFields(Class<?> c) {
+		Field[] fields = referenceFields.get(c);
+		if (fields != null) return fields;
+
+		List<Field> found = new ArrayList<Field>();
+		for (Class<?> current = c; current != null; current = current.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) continue;
+				try {
+					field.setAccessible(true);
+					found.add(field);
+				} catch (RuntimeException e) { // E.g. module encapsulation: sized, but not walked into
+				}
+			}
+		}
+
+		fields = found.toArray(new Field[found.size()]);
+		referenceFields.put(c, fields);
+		return fields;
+	}
+
+	static String formatBytes(long bytes) {
+		if (bytes >= 1024L * 1024L) return (bytes / (1024L * 1024L)) + "MB";
+		if (bytes >= 1024L) return (bytes / 1024L) + "KB";
+		return bytes + "B";
+	}
+
+	/**
+	 * The memory attributed to every widget alive at a moment.
+	 */
+	public static final class Breakdown {
+
+		private final List<WidgetUsage> widgets;
+		private final List<ClassUsage> classes;
+		private final long total;
+		private final boolean isMeasured;
+
+		private Breakdown(List<WidgetUsage> widgets, List<ClassUsage> classes, long total, boolean isMeasured) {
+			this.widgets = Collections.unmodifiableList(widgets);
+			this.classes = Collections.unmodifiableList(classes);
+			this.total = total;
+			this.isMeasured = isMeasured;
+		}
+
+		/** @return The widgets - largest first. */
+		public List<WidgetUsage> getWidgets() {
+			return widgets;
+		}
+
+		/** @return The widget classes - largest first. */
+		public List<ClassUsage> getClasses() {
+			return classes;
+		}
+
+		/** @return The bytes attributed to all widgets. */
+		public long getTotal() {
+			return total;
+		}
+
+		/** @return True if the widgets were measured, false if estimated. */
+		public boolean isMeasured() {
+			return isMeasured;
+		}
+	}
+
+	public static final class WidgetUsage {
+
+		private final String widgetClass;
+		private final String frameName;
+		private final long bytes;
+
+		private WidgetUsage(String widgetClass, String frameName, long bytes) {
+			this.widgetClass = widgetClass;
+			this.frameName = frameName;
+			this.bytes = bytes;
+		}
+
+		/** @return The simple name of the widgets class. */
+		public String getWidgetClass() {
+			return widgetClass;
+		}
+
+		/** @return The name of the frame holding the widget. Null if in free space. */
+		public String getFrameName() {
+			return frameName;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			return widgetClass + " on " + ((frameName == null) ? "free space" : frameName) + ": " + formatBytes(bytes);
+		}
+	}
+
+	public static final class ClassUsage {
+
+		private final String widgetClass;
+		private long bytes = 0;
+		private int count = 0;
+
+		private ClassUsage(String widgetClass) {
+			this.widgetClass = widgetClass;
+		}
+
+		private void add(long widgetBytes) {
+			bytes += widgetBytes;
+			count++;
+		}
+
+		/** @return The simple name of the class. */
+		public String getWidgetClass() {
+			return widgetClass;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/** @return The amount of widgets of the class. */
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return widgetClass + " x" + count + ": " + formatBytes(bytes);
+		}
+	}
+
+}
@@ -0,0 +1,354 @@
+package org.expeditee.items.widgets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Lazily parses and caches the typed values of a widgets data lines.
+ *
+ * A data line is only scanned for and parsed the first time it is requested as
+ * a given type - after that the parsed value is returned until the data changes.
+ * Changes made via the widgets data methods invalidate the cache immediately. Changes
+ * made directly to the source items data are detected on the next read by comparing
+ * the data list against a stamp (its identity and size) - a constant time check, so
+ * reading a cached property never walks the data lines. An in-place edit that keeps the
+ * same list and size is not detected until {@link #dataChanged()}, which the widget
+ * also invokes whenever it is shown.
+ *
+ * Thread safe: properties may be read while painting and while loading.
+ *
+ */
+final class WidgetPropertyCache {
+
+	/** Marks a data line that exists but could not be parsed as the requested type. */
+	private static final Object INVALID = new Object();
+
+	/**
+	 * Where the data lines come from.
+	 */
+	interface DataSource {
+
+		/**
+		 * @return
+		 * 		The current data lines. Null if none.
+		 */
+		List<String> getData();
+	}
+
+	private final InteractiveWidget _widget;
+
+	private final DataSource _source;
+
+	/** All tags that have been read or are listened to. */
+	private final Map<String, Property> _properties = new HashMap<String, Property>();
+
+	private final Map<String, List<WidgetPropertyListener>> _listeners =
+		new HashMap<String, List<WidgetPropertyListener>>();
+
+	// The stamp of the data lines which the cached properties were resolved from
+	private List<String> _stampData = null;
+	private int _stampSize = -1;
+
+	WidgetPropertyCache(final InteractiveWidget widget) {
+		this(widget, new DataSource() {
+			@Override
+			public List<String> getData() {
+				return widget.getCurrentRepresentation().getData();
+			}
+		});
+		assert(widget != null);
+	}
+
+	/**
+	 * @param widget
+	 * 		The widget passed to listeners.
+	 *
+	 * @param source
+	 * 		Must not be null.
+	 */
+	WidgetPropertyCache(InteractiveWidget widget, DataSource source) {
+		assert(source != null);
+		_widget = widget;
+		_source = source;
+	}
+
+	/**
+	 * @param tag
+	 * 		The prefix of the data line.
+	 *
+	 * @param type
+	 * 		Integer, Long, Double, Boolean, List or an enum class.
+	 *
+	 * @return
+	 * 		The parsed value. Null if there is no such data line. Otherwise an instance of type
+	 * 		if the data line is valid.
+	 */
+	Object get(String tag, Class<?> type) {
+		assert(type != null);
+
+		List<PropertyChange> changes;
+		Object value;
+
+		synchronized(this) {
+
+			changes = validateStamp();
+
+			Property property = resolve(tag);
+
+			value = property.values.get(type);
+			if (value == null && !property.values.containsKey(type)) {
+				value = parse(property.raw, type);
+				property.values.put(type, value);
+			}
+		}
+
+		// Never raise listeners from within a read - e.g. while painting
+		fireChangesLater(changes);
+
+		return (value == INVALID) ? null : value;
+	}
+
+	/**
+	 * Invoked whenever the data of the widget has been changed. Drops any stale values
+	 * and notifies listeners.
+	 */
+	void dataChanged() {
+		List<PropertyChange> changes;
+		synchronized(this) {
+			changes = refresh();
+		}
+		
+		if (SwingUtilities.isEventDispatchThread()) {
+			fireChanges(changes);
+		} else {
+			fireChangesLater(changes);
+		}
+	}
+
+	void addListener(String tag, WidgetPropertyListener listener) {
+		if (listener == null) throw new NullPointerException("listener");
+
+		synchronized(this) {
+
+			List<WidgetPropertyListener> tagListeners = _listeners.get(tag);
+			if (tagListeners == null) {
+				tagListeners = new LinkedList<WidgetPropertyListener>();
+				_listeners.put(tag, tagListeners);
+			}
+
+			if (!tagListeners.contains(listener))
+				tagListeners.add(listener);
+
+			// Remember the current value so that changes can be detected
+			resolve(tag);
+		}
+	}
+
+	synchronized void removeListener(String tag, WidgetPropertyListener listener) {
+		List<WidgetPropertyListener> tagListeners = _listeners.get(tag);
+		if (tagListeners != null) {
+			tagListeners.remove(listener);
+			if (tagListeners.isEmpty())
+				_listeners.remove(tag);
+		}
+	}
+
+	/**
+	 * Must hold lock.
+	 *
+	 * @return The cached property for the tag - never null.
+	 */
+	private Property resolve(String tag) {
+		Property property = _properties.get(tag);
+		if (property == null) {
+			property = new Property();
+			property.raw = getStrippedDataString(tag); // throws on bad tags
+			_properties.put(tag, property);
+		}
+		return property;
+	}
+
+	/**
+	 * Must hold lock.
+	 *
+	 * @return The changes if the data was modified since the last stamp. Otherwise null.
+	 */
+	private List<PropertyChange> validateStamp() {
+
+		List<String> data = _source.getData();
+
+		if (data == _stampData && (data == null || data.size() == _stampSize)) {
+			return null;
+		}
+
+		return refresh();
+	}
+
+	/**
+	 * Re-resolves all known properties against the current data. Must hold lock.
+	 *
+	 * @return The properties which have listeners and have changed. Null if none.
+	 */
+	private List<PropertyChange> refresh() {
+
+		List<String> data = _source.getData();
+		_stampData = data;
+		_stampSize = (data == null) ? -1 : data.size();
+
+		if (_properties.isEmpty()) return null;
+
+		List<PropertyChange> changes = null;
+
+		for (Map.Entry<String, Property> entry : _properties.entrySet()) {
+
+			Property property = entry.getValue();
+			String raw = getStrippedDataString(entry.getKey());
+
+			if (raw == null ? property.raw == null : raw.equals(property.raw))
+				continue;
+
+			String oldRaw = property.raw;
+			property.raw = raw;
+			property.values.clear();
+
+			List<WidgetPropertyListener> tagListeners = _listeners.get(entry.getKey());
+			if (tagListeners != null) {
+				if (changes == null) changes = new LinkedList<PropertyChange>();
+				changes.add(new PropertyChange(entry.getKey(), oldRaw, raw,
+						new ArrayList<WidgetPropertyListener>(tagListeners)));
+			}
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Must hold lock.
+	 *
+	 * @see InteractiveWidget#getStrippedDataString(String)
+	 */
+	private String getStrippedDataString(String tag) {
+		if (tag == null)
+			throw new NullPointerException("tag");
+		else if (tag.length() == 0)
+			throw new IllegalArgumentException("tag is empty");
+
+		List<String> data = _source.getData();
+		if (data != null) {
+			for (String str : data) {
+				if (str != null && str.startsWith(tag)
+						&& str.length() > tag.length()) {
+					return str.substring(tag.length());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Raises the changes on the swing thread, after whatever it is doing.
+	 */
+	private void fireChangesLater(final List<PropertyChange> changes) {
+		if (changes == null) return;
+
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				fireChanges(changes);
+			}
+		});
+	}
+
+	/**
+	 * Must not hold lock.
+	 */
+	private void fireChanges(List<PropertyChange> changes) {
+		if (changes == null) return;
+
+		for (PropertyChange change : changes) {
+			for (WidgetPropertyListener listener : change.listeners) {
+				listener.propertyChanged(_widget, change.tag, change.oldValue, change.newValue);
+			}
+		}
+	}
+
+	/**
+	 * @return The parsed value, null if raw is null, or INVALID if could not be parsed.
+	 */
+	private static Object parse(String raw, Class<?> type) {
+
+		if (raw == null) return null;
+
+		String trimmed = raw.trim();
+
+		try {
+
+			if (type == Integer.class) {
+				return Integer.valueOf(trimmed);
+
+			} else if (type == Long.class) {
+				return Long.valueOf(trimmed);
+
+			} else if (type == Double.class) {
+				return Double.valueOf(trimmed);
+
+			} else if (type == Boolean.class) {
+				if (trimmed.equalsIgnoreCase("true") || trimmed.equalsIgnoreCase("yes") ||
+						trimmed.equalsIgnoreCase("on") || trimmed.equals("1"))
+					return Boolean.TRUE;
+
+				if (trimmed.equalsIgnoreCase("false") || trimmed.equalsIgnoreCase("no") ||
+						trimmed.equalsIgnoreCase("off") || trimmed.equals("0"))
+					return Boolean.FALSE;
+
+				return INVALID;
+
+			} else if (type == List.class) {
+				List<String> items = new ArrayList<String>();
+				for (String item : trimmed.split(",")) {
+					item = item.trim();
+					if (item.length() > 0) items.add(item);
+				}
+				return Collections.unmodifiableList(items);
+
+			} else if (type.isEnum()) {
+				for (Object constant : type.getEnumConstants()) {
+					if (((Enum) constant).name().equalsIgnoreCase(trimmed))
+						return constant;
+				}
+				return INVALID;
+			}
+
+		} catch (NumberFormatException e) { /* Consume */ }
+
+		return INVALID;
+	}
+
+	private static class Property {
+		String raw;
+		/** The parsed values per type read as - usually only the one. */
+		final Map<Class<?>, Object> values = new HashMap<Class<?>, Object>(2);
+	}
+
+	private static class PropertyChange {
+
+		final String tag;
+		final String oldValue;
+		final String newValue;
+		final List<WidgetPropertyListener> listeners;
+
+		PropertyChange(String tag, String oldValue, String newValue, List<WidgetPropertyListener> listeners) {
+			this.tag = tag;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+			this.listeners = listeners;
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package org.expeditee.items.widgets;
+
+/**
+ * Listens for changes to a widgets typed properties - i.e. the data lines
+ * of the widgets current representation.
+ *
+ * @see InteractiveWidget#addPropertyListener(String, WidgetPropertyListener)
+ */
+public interface WidgetPropertyListener {
+
+	/**
+	 * Invoked when the data line for a property has changed. Always raised on the
+	 * swing thread - and never from within a property read (e.g. while painting).
+	 *
+	 * @param widget
+	 * 		The widget whose property changed. Never null.
+	 *
+	 * @param tag
+	 * 		The tag of the property that changed. Never null.
+	 *
+	 * @param oldValue
+	 * 		The previous stripped value. Null if the property did not exist.
+	 *
+	 * @param newValue
+	 * 		The new stripped value. Null if the property has been removed.
+	 */
+	void propertyChanged(InteractiveWidget widget, String tag, String oldValue, String newValue);
+}
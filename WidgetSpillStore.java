@@ -0,0 +1,254 @@
+package org.expeditee.items.widgets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A session wide store where heavy duty widgets can spill their in-memory state
+ * when they expire or are temporarily unloaded - and rehydrate it on their next load
+ * rather than going through their full load.
+ *
+ * Spilled data is written to a file in a temporary directory for the session, and
+ * rehydrated as a read-only memory-mapped buffer - so the data is paged in by the OS
+ * on demand without being copied onto the heap.
+ *
+ * A widget only has one spill at a time: spilling again replaces the previous spill.
+ * Spills are deleted once the widget discards them, once the widget has been garbage
+ * collected (i.e. deleted for good - including from the undo list), and when Expeditee exits.
+ *
+ * @see HeavyDutyInteractiveWidget#spillWidgetData(ByteBuffer)
+ * @see HeavyDutyInteractiveWidget#rehydrateWidgetData()
+ */
+public final class WidgetSpillStore {
+
+	private static final String SPILL_FILE_SUFFIX = ".spill";
+
+	private static WidgetSpillStore _instance = null;
+
+	private final File sessionDirectory;
+
+	/** The current spill of each widget. Weak so that spills do not keep widgets alive. */
+	private final Map<HeavyDutyInteractiveWidget, SpillReference> spills =
+		new WeakHashMap<HeavyDutyInteractiveWidget, SpillReference>();
+
+	/** Strongly holds the references so that they get enqueued once their widgets are collected. */
+	private final Set<SpillReference> liveReferences = new HashSet<SpillReference>();
+
+	private final ReferenceQueue<HeavyDutyInteractiveWidget> collectedWidgets =
+		new ReferenceQueue<HeavyDutyInteractiveWidget>();
+
+	private long spillCounter = 0;
+
+	private WidgetSpillStore(File sessionDirectory) {
+		this.sessionDirectory = sessionDirectory;
+		Runtime.getRuntime().addShutdownHook(new Thread(new CleanupOnExit(), "Widget-Spill-Cleanup"));
+	}
+
+	/**
+	 * @return
+	 * 		The spill store. Null if a session directory could not be created - in which
+	 * 		case widgets must go through their full load.
+	 */
+	public static synchronized WidgetSpillStore getInstance() {
+		if (_instance == null) {
+			try {
+				_instance = new WidgetSpillStore(
+						Files.createTempDirectory("expeditee-widgets-").toFile());
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		return _instance;
+	}
+
+	/**
+	 * Spills the remaining bytes of the given buffer for the widget, replacing any previous spill.
+	 *
+	 * @param widget
+	 * 		Must not be null.
+	 *
+	 * @param data
+	 * 		The data to spill - from its position to its limit. Must not be null.
+	 * 		The position is not changed.
+	 *
+	 * @return
+	 * 		True if spilled. False if failed to write the data - in which case the widget has no spill.
+	 */
+	public boolean spill(HeavyDutyInteractiveWidget widget, ByteBuffer data) {
+		if (widget == null) throw new NullPointerException("widget");
+		if (data == null) throw new NullPointerException("data");
+
+		File spillFile;
+		synchronized(this) {
+			expungeCollectedWidgets();
+			spillFile = new File(sessionDirectory, (spillCounter++) + SPILL_FILE_SUFFIX);
+		}
+
+		// Always write a new file: truncating a file that may still be mapped is not safe
+		boolean written = false;
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(spillFile);
+			FileChannel channel = out.getChannel();
+			ByteBuffer toWrite = data.duplicate();
+			while (toWrite.hasRemaining()) {
+				channel.write(toWrite);
+			}
+			written = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+					written = false;
+				}
+			}
+		}
+
+		if (!written) {
+			spillFile.delete();
+			discard(widget);
+			return false;
+		}
+
+		File previous = null;
+		synchronized(this) {
+			SpillReference ref = spills.get(widget);
+			if (ref == null) {
+				ref = new SpillReference(widget, collectedWidgets);
+				spills.put(widget, ref);
+				liveReferences.add(ref);
+			}
+			previous = ref.spillFile;
+			ref.spillFile = spillFile;
+		}
+
+		if (previous != null) previous.delete();
+
+		return true;
+	}
+
+	/**
+	 * Maps the widgets spill into memory. The spill is kept - discard it once it is no longer needed.
+	 *
+	 * @param widget
+	 * 		Must not be null.
+	 *
+	 * @return
+	 * 		A read-only buffer over the spilled data. Null if the widget has no spill,
+	 * 		or if failed to map the spill.
+	 */
+	public ByteBuffer rehydrate(HeavyDutyInteractiveWidget widget) {
+		if (widget == null) throw new NullPointerException("widget");
+
+		File spillFile;
+		synchronized(this) {
+			expungeCollectedWidgets();
+			SpillReference ref = spills.get(widget);
+			if (ref == null || ref.spillFile == null) return null;
+			spillFile = ref.spillFile;
+		}
+
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(spillFile);
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return mapped; // The mapping remains valid once the channel is closed
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) { /* Consume */ }
+			}
+		}
+	}
+
+	/**
+	 * @param widget
+	 * 		Must not be null.
+	 *
+	 * @return
+	 * 		True if the widget has spilled data.
+	 */
+	public synchronized boolean hasSpill(HeavyDutyInteractiveWidget widget) {
+		if (widget == null) throw new NullPointerException("widget");
+		SpillReference ref = spills.get(widget);
+		return ref != null && ref.spillFile != null;
+	}
+
+	/**
+	 * Deletes the widgets spill - if it has one.
+	 *
+	 * @param widget
+	 * 		Must not be null.
+	 */
+	public void discard(HeavyDutyInteractiveWidget widget) {
+		if (widget == null) throw new NullPointerException("widget");
+
+		SpillReference ref;
+		synchronized(this) {
+			ref = spills.remove(widget);
+			if (ref == null) return;
+			liveReferences.remove(ref);
+		}
+
+		if (ref.spillFile != null) ref.spillFile.delete();
+	}
+
+	/**
+	 * Deletes the spills of widgets that have been garbage collected. Must hold lock.
+	 */
+	private void expungeCollectedWidgets() {
+		Reference<? extends HeavyDutyInteractiveWidget> ref;
+		while ((ref = collectedWidgets.poll()) != null) {
+			SpillReference spillRef = (SpillReference)ref;
+			liveReferences.remove(spillRef);
+			if (spillRef.spillFile != null) spillRef.spillFile.delete();
+		}
+	}
+
+	private static class SpillReference extends WeakReference<HeavyDutyInteractiveWidget> {
+
+		/** The current spill. Guarded by the store. */
+		File spillFile = null;
+
+		SpillReference(HeavyDutyInteractiveWidget widget, ReferenceQueue<HeavyDutyInteractiveWidget> queue) {
+			super(widget, queue);
+		}
+	}
+
+	private class CleanupOnExit implements Runnable {
+		@Override
+		public void run() {
+			File[] files = sessionDirectory.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					f.delete(); // Can fail on some platforms while mapped - the OS temp cleanup will get it
+				}
+			}
+			sessionDirectory.delete();
+		}
+	}
+
+}
@@ -0,0 +1,393 @@
+package org.expeditee.items.widgets;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import javax.management.ObjectName;
+import javax.swing.SwingUtilities;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.MessageBay;
+
+/**
+ * Statistics on how heavy duty widgets load, save and are cached - to tune cache depths
+ * and load delays from data rather than guesses.
+ *
+ * Registered with the platform MBean server as {@value #OBJECT_NAME}, so can be watched live
+ * with any JMX console. Also offers operations to force widgets to expire. The same statistics
+ * are dumped as text to the message bay by {@link #DisplayWidgetStatistics()}.
+ */
+public final class WidgetStatistics implements WidgetStatisticsMBean {
+
+	public static final String OBJECT_NAME = "org.expeditee:type=WidgetStatistics";
+
+	/** The upper bounds in milliseconds of the histogram buckets. */
+	private static final long[] BUCKET_BOUNDS = { 10, 100, 1000, 10000 };
+
+	private static final long HOUR_MS = 60L * 60L * 1000L;
+
+	/** Expiry times kept for the last hour count. */
+	private static final int EXPIRY_HISTORY_SIZE = 4096;
+
+	private static WidgetStatistics _instance = null;
+
+	private final Map<String, ClassStatistics> classes = new TreeMap<String, ClassStatistics>(); // guarded by this
+
+	private final ClassStatistics totals = new ClassStatistics(); // guarded by this
+
+	/** Ring of the most recent expiry times. */
+	private final long[] expiryTimes = new long[EXPIRY_HISTORY_SIZE]; // guarded by this
+	private int expiryTimesNext = 0; // guarded by this
+
+	private WidgetStatistics() {
+	}
+
+	/**
+	 * @return
+	 * 		The statistics - registered as an MBean on first use.
+	 */
+	public static synchronized WidgetStatistics getInstance() {
+		if (_instance == null) {
+			_instance = new WidgetStatistics();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(_instance, new ObjectName(OBJECT_NAME));
+			} catch (Exception e) { // Still collect: the dump action works without JMX
+				e.printStackTrace();
+			}
+		}
+		return _instance;
+	}
+
+	/**
+	 * Displays the widget statistics in the message bay.
+	 */
+	public static void DisplayWidgetStatistics() {
+		for (String line : getInstance().dump().split("\n")) {
+			MessageBay.displayMessage(line);
+		}
+	}
+
+	synchronized void widgetExpired(HeavyDutyInteractiveWidget widget) {
+		getClassStatistics(widget).expiryCount++;
+		totals.expiryCount++;
+		expiryTimes[expiryTimesNext] = System.currentTimeMillis();
+		expiryTimesNext = (expiryTimesNext + 1) % EXPIRY_HISTORY_SIZE;
+	}
+
+	/**
+	 * @param loadTime
+	 * 		In milliseconds.
+	 *
+	 * @param isCompleted
+	 * 		True if the load completed.
+	 *
+	 * @param wasExpired
+	 * 		True if the widget had expired from the cache before the load.
+	 *
+	 * @param wasTempUnloaded
+	 * 		True if the widget had been unloaded temporarily before the load - e.g. when deleted.
+	 */
+	synchronized void loadFinished(HeavyDutyInteractiveWidget widget, long loadTime,
+			boolean isCompleted, boolean wasExpired, boolean wasTempUnloaded) {
+		ClassStatistics stats = getClassStatistics(widget);
+		if (wasExpired) {
+			stats.reloadAfterExpiryCount++;
+			totals.reloadAfterExpiryCount++;
+		}
+		if (wasTempUnloaded) {
+			stats.reloadAfterTempUnloadCount++;
+			totals.reloadAfterTempUnloadCount++;
+		}
+		if (isCompleted) {
+			stats.loads.record(loadTime);
+			totals.loads.record(loadTime);
+		}
+	}
+
+	/**
+	 * @param saveTime
+	 * 		In milliseconds.
+	 */
+	synchronized void saveFinished(HeavyDutyInteractiveWidget widget, long saveTime) {
+		getClassStatistics(widget).saves.record(saveTime);
+		totals.saves.record(saveTime);
+	}
+
+	/**
+	 * Must hold lock.
+	 */
+	private ClassStatistics getClassStatistics(HeavyDutyInteractiveWidget widget) {
+		String name = widget.getClass().getSimpleName();
+		ClassStatistics stats = classes.get(name);
+		if (stats == null) {
+			stats = new ClassStatistics();
+			classes.put(name, stats);
+		}
+		return stats;
+	}
+
+	@Override
+	public int getTransientWidgetCount() {
+		return WidgetCacheManager.getTransientWidgets().size();
+	}
+
+	@Override
+	public int getPendingLoadCount() {
+		return HeavyDutyLoadScheduler.getInstance().getPendingCount();
+	}
+
+	@Override
+	public synchronized long getExpiryCount() {
+		return totals.expiryCount;
+	}
+
+	@Override
+	public synchronized long getExpiriesInLastHour() {
+		long since = System.currentTimeMillis() - HOUR_MS;
+		long count = 0;
+		for (long time : expiryTimes) {
+			if (time > since) count++;
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized long getReloadAfterExpiryCount() {
+		return totals.reloadAfterExpiryCount;
+	}
+
+	@Override
+	public synchronized long getReloadAfterTempUnloadCount() {
+		return totals.reloadAfterTempUnloadCount;
+	}
+
+	@Override
+	public long getRetainedHitCount() {
+		return WidgetCacheManager.getRetainedHitCount();
+	}
+
+	@Override
+	public synchronized long getLoadCount() {
+		return totals.loads.count;
+	}
+
+	@Override
+	public synchronized long getAverageLoadTime() {
+		return totals.loads.getAverage();
+	}
+
+	@Override
+	public synchronized long[] getLoadTimeHistogram() {
+		return totals.loads.buckets.clone();
+	}
+
+	@Override
+	public synchronized long getSaveCount() {
+		return totals.saves.count;
+	}
+
+	@Override
+	public synchronized long getAverageSaveTime() {
+		return totals.saves.getAverage();
+	}
+
+	@Override
+	public synchronized long[] getSaveTimeHistogram() {
+		return totals.saves.buckets.clone();
+	}
+
+	@Override
+	public String[] getHistogramBuckets() {
+		String[] names = new String[BUCKET_BOUNDS.length + 1];
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			names[i] = "<" + BUCKET_BOUNDS[i] + "ms";
+		}
+		names[BUCKET_BOUNDS.length] = ">=" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1] + "ms";
+		return names;
+	}
+
+	@Override
+	public synchronized String[] getWidgetClasses() {
+		return classes.keySet().toArray(new String[classes.size()]);
+	}
+
+	@Override
+	public synchronized String getClassSummary(String widgetClass) {
+		ClassStatistics stats = classes.get(widgetClass);
+		return (stats == null) ? "No statistics for " + widgetClass : stats.toString();
+	}
+
+	@Override
+	public int forceExpireClass(final String widgetClass) {
+		if (widgetClass == null) return 0;
+
+		Integer expired = runOnSwingThread(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				int count = 0;
+				for (HeavyDutyInteractiveWidget tw : WidgetCacheManager.getTransientWidgets()) {
+					if ((widgetClass.equals(tw.getClass().getSimpleName()) || widgetClass.equals(tw.getClass().getName()))
+							&& WidgetCacheManager.forceExpire(tw)) count++;
+				}
+				return count;
+			}
+		});
+
+		return (expired == null) ? 0 : expired;
+	}
+
+	@Override
+	public boolean forceExpireWidget(final String widgetId) {
+		if (widgetId == null) return false;
+
+		Boolean expired = runOnSwingThread(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				for (HeavyDutyInteractiveWidget tw : WidgetCacheManager.getTransientWidgets()) {
+					if (widgetId.equals(getWidgetId(tw))) return WidgetCacheManager.forceExpire(tw);
+				}
+				return false;
+			}
+		});
+
+		return expired != null && expired;
+	}
+
+	@Override
+	public String dump() {
+
+		StringBuilder sb = new StringBuilder();
+
+		final List<HeavyDutyInteractiveWidget> cached =
+			new ArrayList<HeavyDutyInteractiveWidget>(WidgetCacheManager.getTransientWidgets());
+
+		synchronized(this) {
+			sb.append("Heavy duty widgets: ").append(cached.size()).append(" cached, ")
+				.append(getPendingLoadCount()).append(" pending load\n");
+			sb.append("Expiries: ").append(totals.expiryCount).append(" total, ")
+				.append(getExpiriesInLastHour()).append(" in the last hour, ")
+				.append(totals.reloadAfterExpiryCount).append(" reloaded after expiry, ")
+				.append(getRetainedHitCount()).append(" restored from retention\n");
+			sb.append("Temporary unloads: ").append(totals.reloadAfterTempUnloadCount).append(" reloaded\n");
+			sb.append("Loads: ").append(totals.loads).append('\n');
+			sb.append("Saves: ").append(totals.saves).append('\n');
+
+			for (Map.Entry<String, ClassStatistics> entry : classes.entrySet()) {
+				sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+			}
+		}
+
+		// Frames are swing state: JMX calls this on its own threads
+		String widgets = runOnSwingThread(new Callable<String>() {
+			@Override
+			public String call() {
+				return describe(cached);
+			}
+		});
+		if (widgets != null) sb.append(widgets);
+
+		return sb.toString();
+	}
+
+	/**
+	 * Swing thread only.
+	 */
+	private static String describe(List<HeavyDutyInteractiveWidget> widgets) {
+		StringBuilder sb = new StringBuilder();
+		for (HeavyDutyInteractiveWidget tw : widgets) {
+			Frame frame = tw.getParentFrame();
+			sb.append("  ").append(getWidgetId(tw))
+				.append(" on ").append((frame == null) ? "free space" : frame.getName())
+				.append(", cache depth ").append(tw.getCacheDepth())
+				.append(", ~").append(tw.getEstimatedRetainedSize() / 1024).append("KB\n");
+		}
+		return sb.toString();
+	}
+
+	private static String getWidgetId(HeavyDutyInteractiveWidget tw) {
+		return tw.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(tw));
+	}
+
+	/**
+	 * Expiry must happen on the swing thread - JMX operations arrive on their own threads.
+	 *
+	 * @return
+	 * 		The result. Null if failed.
+	 */
+	private static <T> T runOnSwingThread(Callable<T> task) {
+		try {
+			if (SwingUtilities.isEventDispatchThread()) return task.call();
+
+			FutureTask<T> future = new FutureTask<T>(task);
+			SwingUtilities.invokeAndWait(future);
+			return future.get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (InvocationTargetException e) {
+			e.printStackTrace();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Counts, totals and a histogram of operation times.
+	 */
+	private static final class TimeStatistics {
+
+		long count = 0;
+		long totalTime = 0;
+		long maxTime = 0;
+		final long[] buckets = new long[BUCKET_BOUNDS.length + 1];
+
+		void record(long time) {
+			count++;
+			totalTime += time;
+			maxTime = Math.max(maxTime, time);
+
+			int bucket = 0;
+			while (bucket < BUCKET_BOUNDS.length && time >= BUCKET_BOUNDS[bucket]) bucket++;
+			buckets[bucket]++;
+		}
+
+		long getAverage() {
+			return (count == 0) ? 0 : totalTime / count;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(count).append(", avg ").append(getAverage()).append("ms, max ").append(maxTime).append("ms [");
+			for (int i = 0; i < buckets.length; i++) {
+				if (i > 0) sb.append(' ');
+				sb.append(buckets[i]);
+			}
+			return sb.append(']').toString();
+		}
+	}
+
+	private static final class ClassStatistics {
+
+		final TimeStatistics loads = new TimeStatistics();
+		final TimeStatistics saves = new TimeStatistics();
+		long expiryCount = 0;
+		long reloadAfterExpiryCount = 0;
+		long reloadAfterTempUnloadCount = 0;
+
+		@Override
+		public String toString() {
+			return "loads " + loads + ", saves " + saves + ", expired " + expiryCount
+				+ ", reloaded after expiry " + reloadAfterExpiryCount
+				+ ", reloaded after temporary unload " + reloadAfterTempUnloadCount;
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.expeditee.items.widgets;
+
+/**
+ * The JMX management interface of {@link WidgetStatistics}.
+ */
+public interface WidgetStatisticsMBean {
+
+	/** @return The amount of heavy duty widgets registered with the WidgetCacheManager. */
+	int getTransientWidgetCount();
+
+	/** @return The amount of widgets waiting to load. */
+	int getPendingLoadCount();
+
+	/** @return The amount of widgets expired since startup. */
+	long getExpiryCount();
+
+	/** @return The amount of widgets expired in the last hour. */
+	long getExpiriesInLastHour();
+
+	/** @return The amount of loads of widgets that had expired. */
+	long getReloadAfterExpiryCount();
+
+	/** @return The amount of loads of widgets that had been unloaded temporarily - e.g. deleted and then restored. */
+	long getReloadAfterTempUnloadCount();
+
+	/** @return The amount of widgets restored from the retention tier rather than reloaded. */
+	long getRetainedHitCount();
+
+	/** @return The amount of completed loads. */
+	long getLoadCount();
+
+	/** @return The average time in milliseconds of completed loads. */
+	long getAverageLoadTime();
+
+	/** @return The counts of completed loads per time bucket - see getHistogramBuckets. */
+	long[] getLoadTimeHistogram();
+
+	/** @return The amount of saves. */
+	long getSaveCount();
+
+	/** @return The average time in milliseconds of saves. */
+	long getAverageSaveTime();
+
+	/** @return The counts of saves per time bucket - see getHistogramBuckets. */
+	long[] getSaveTimeHistogram();
+
+	/** @return The upper bounds in milliseconds of the histogram buckets. The last bucket is unbounded. */
+	String[] getHistogramBuckets();
+
+	/** @return The simple names of the widget classes that have loaded, saved or expired. */
+	String[] getWidgetClasses();
+
+	/**
+	 * @param widgetClass
+	 * 		The simple name of a widget class.
+	 *
+	 * @return
+	 * 		The load, save and expiry statistics of the class.
+	 */
+	String getClassSummary(String widgetClass);
+
+	/**
+	 * Expires every cached widget of the given class that is not visible.
+	 *
+	 * @param widgetClass
+	 * 		The simple or full name of a widget class.
+	 *
+	 * @return
+	 * 		The amount of widgets expired.
+	 */
+	int forceExpireClass(String widgetClass);
+
+	/**
+	 * Expires a cached widget if not visible.
+	 *
+	 * @param widgetId
+	 * 		The id of the widget as listed in the dump.
+	 *
+	 * @return
+	 * 		True if expired.
+	 */
+	boolean forceExpireWidget(String widgetId);
+
+	/**
+	 * @return
+	 * 		A human readable dump of all statistics and cached widgets.
+	 */
+	String dump();
+
+}
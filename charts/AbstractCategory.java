@@ -26,6 +26,13 @@ public abstract class AbstractCategory extends AbstractValueAxis {
 		_data.clear();
 	}
 
+	@Override
+	protected int getDataItemCount() {
+		if (_data == null)
+			return 0;
+		return _data.getRowCount() * _data.getColumnCount();
+	}
+
 	@Override
 	protected boolean addCategoryData(String categoryName,
 			Collection<Text> items, boolean swap) {
@@ -49,6 +49,12 @@ public abstract class AbstractChart extends DataFrameWidget {
 
 	protected Map<String, Paint> _paints;
 
+	/** Roughly what a chart, its plot and renderers hold before any data is added. */
+	private static final long CHART_BYTES = 64 * 1024;
+
+	/** Roughly what each data item holds - its key, value and dataset entry. */
+	private static final long DATA_ITEM_BYTES = 128;
+
 	protected JFreeChart getChart() {
 		return _chart;
 	}
@@ -295,6 +301,21 @@ public abstract class AbstractChart extends DataFrameWidget {
 
 	protected abstract void clearData();
 
+	/**
+	 * @return
+	 * 		The amount of data items charted. Must be cheap.
+	 */
+	protected abstract int getDataItemCount();
+
+	/**
+	 * The chart, its data and the chart panels off screen buffer.
+	 */
+	@Override
+	public long getEstimatedRetainedSize() {
+		long bufferBytes = 4L * Math.max(0, getWidth()) * Math.max(0, getHeight());
+		return CHART_BYTES + bufferBytes + DATA_ITEM_BYTES * getDataItemCount();
+	}
+
 	@Override
 	public void setBackgroundColor(Color c) {
 		super.setBackgroundColor(c);
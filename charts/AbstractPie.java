@@ -51,6 +51,11 @@ public abstract class AbstractPie extends AbstractChart {
 		_data.clear();
 	}
 
+	@Override
+	protected int getDataItemCount() {
+		return (_data == null) ? 0 : _data.getItemCount();
+	}
+
 	/**
 	 * @param dataFrame
 	 */
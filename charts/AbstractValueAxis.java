@@ -10,6 +10,7 @@ import org.jfree.chart.axis.Axis;
 import org.jfree.chart.plot.Plot;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.ValueAxisPlot2;
+import org.jfree.data.xy.XYDataset;
 
 public abstract class AbstractValueAxis extends AbstractChart {
 
@@ -17,6 +18,20 @@ public abstract class AbstractValueAxis extends AbstractChart {
 		super(source, args);
 	}
 
+	/**
+	 * @return
+	 * 		The amount of items over every series. Zero if data is null.
+	 */
+	protected static int getItemCount(XYDataset data) {
+		if (data == null)
+			return 0;
+		int count = 0;
+		for (int series = data.getSeriesCount() - 1; series >= 0; series--) {
+			count += data.getItemCount(series);
+		}
+		return count;
+	}
+
 	/**
 	 * @param dataFrame
 	 */
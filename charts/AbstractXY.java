@@ -32,6 +32,11 @@ public abstract class AbstractXY extends AbstractValueAxis {
 		_data.removeAllSeries();
 	}
 
+	@Override
+	protected int getDataItemCount() {
+		return getItemCount(_data);
+	}
+
 	@Override
 	protected boolean addCategoryData(String categoryName,
 			Collection<Text> items, boolean swap) {
@@ -100,6 +100,11 @@ public class TimeSeries extends AbstractValueAxis {
 		_data.removeAllSeries();
 	}
 
+	@Override
+	protected int getDataItemCount() {
+		return getItemCount(_data);
+	}
+
 	@Override
 	protected JFreeChart createNewChart() {
 		return ChartFactory.createTimeSeriesChart(DEFAULT_TITLE, DEFAULT_XAXIS,
@@ -0,0 +1,85 @@
+package org.expeditee.items.widgets;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameLinkGraphTest {
+
+	private static final int MAX_HOPS = 4;
+
+	private FrameLinkGraph graph;
+
+	@Before
+	public void setUp() {
+		graph = new FrameLinkGraph();
+	}
+
+	private int distance(String frameName) {
+		return graph.getDistance(frameName, MAX_HOPS);
+	}
+
+	@Test
+	public void unknownBeforeAnyVisit() {
+		assertEquals(MAX_HOPS + 1, distance("home1"));
+	}
+
+	@Test
+	public void measuresHopsAlongLinks() {
+		graph.visited("home1", Arrays.asList("a1", "b1"));
+		graph.visited("a1", Arrays.asList("a2"));
+		graph.visited("a2", Arrays.asList("a3"));
+
+		assertEquals(0, distance("a2"));
+		assertEquals(1, distance("a1"));
+		assertEquals(1, distance("a3"));
+		assertEquals(2, distance("home1"));
+		assertEquals(3, distance("b1"));
+	}
+
+	@Test
+	public void followsLinksBothWays() {
+		graph.visited("a1", Arrays.asList("hub1"));
+		graph.visited("b1", Arrays.asList("hub1")); // Jumped: not linked from a1
+
+		assertEquals(1, distance("a1")); // By the jump
+		assertEquals(1, distance("hub1"));
+	}
+
+	@Test
+	public void limitsToMaxHops() {
+		graph.visited("f1", Arrays.asList("f2"));
+		graph.visited("f2", Arrays.asList("f3"));
+		graph.visited("f3", Arrays.asList("f4"));
+		graph.visited("f4", Arrays.asList("f5"));
+		graph.visited("f5", Arrays.asList("f6"));
+		graph.visited("f6", Collections.<String>emptyList());
+
+		assertEquals(2, graph.getDistance("f4", 2));
+		assertEquals(3, graph.getDistance("f3", 2)); // Further than looked
+		assertEquals(5, graph.getDistance("f1", 5));
+	}
+
+	@Test
+	public void ignoresCaseAndSelfLinks() {
+		graph.visited("Home1", Arrays.asList("HOME1", "Next1"));
+
+		assertEquals(0, distance("home1"));
+		assertEquals(1, distance("next1"));
+	}
+
+	@Test
+	public void relearnsLinksOnRevisit() {
+		graph.visited("home1", Arrays.asList("a1"));
+		graph.visited("a1", Collections.<String>emptyList());
+		graph.visited("home1", Arrays.asList("b1")); // a1 unlinked - but still reached by the visit
+
+		assertEquals(1, distance("a1"));
+		assertEquals(1, distance("b1"));
+	}
+
+}
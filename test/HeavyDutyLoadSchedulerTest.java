@@ -0,0 +1,61 @@
+package org.expeditee.items.widgets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HeavyDutyLoadSchedulerTest {
+
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void usesDelaysAsIsAtReferencePace() {
+		assertEquals(1.0, HeavyDutyLoadScheduler.getDelayScale(1000), DELTA);
+	}
+
+	@Test
+	public void scalesInverselyWithPace() {
+		assertEquals(2.0, HeavyDutyLoadScheduler.getDelayScale(500), DELTA);
+		assertEquals(0.5, HeavyDutyLoadScheduler.getDelayScale(2000), DELTA);
+	}
+
+	@Test
+	public void clampsScale() {
+		assertEquals(HeavyDutyLoadScheduler.MAX_DELAY_SCALE, HeavyDutyLoadScheduler.getDelayScale(10), DELTA);
+		assertEquals(HeavyDutyLoadScheduler.MAX_DELAY_SCALE, HeavyDutyLoadScheduler.getDelayScale(0), DELTA);
+		assertEquals(HeavyDutyLoadScheduler.MIN_DELAY_SCALE, HeavyDutyLoadScheduler.getDelayScale(60000), DELTA);
+	}
+
+	@Test
+	public void stretchesWhilePassingThrough() {
+		assertEquals(HeavyDutyLoadScheduler.MAX_DELAY_SCALE, HeavyDutyLoadScheduler.getDelayScale(300, 0), DELTA);
+		assertEquals(HeavyDutyLoadScheduler.MAX_DELAY_SCALE, HeavyDutyLoadScheduler.getDelayScale(300, 300), DELTA);
+	}
+
+	@Test
+	public void stopsStretchingOnceSettled() {
+		assertEquals(1.0, HeavyDutyLoadScheduler.getDelayScale(300, 301), DELTA);
+		assertEquals(1.0, HeavyDutyLoadScheduler.getDelayScale(300, 60000), DELTA);
+	}
+
+	@Test
+	public void keepsShorterDelaysOnceSettled() {
+		assertEquals(0.5, HeavyDutyLoadScheduler.getDelayScale(2000, 2001), DELTA);
+	}
+
+	@Test
+	public void readyWithinBaseDelayAfterFastNavigation() {
+		int delay = 1000;
+		double averageNavigationInterval = 300; // Flicking through frames
+
+		// Queued on arrival: stretched while the user may still move on
+		assertEquals(3000, HeavyDutyLoadScheduler.adaptDelay(delay, averageNavigationInterval, 100));
+
+		// The user has stopped: ready within the base delay of being queued
+		long settled = HeavyDutyLoadScheduler.adaptDelay(delay, averageNavigationInterval, 301);
+		assertTrue(settled <= delay);
+		assertEquals(delay, settled);
+	}
+
+}
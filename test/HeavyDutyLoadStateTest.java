@@ -0,0 +1,176 @@
+package org.expeditee.items.widgets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JPanel;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.items.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HeavyDutyLoadStateTest {
+
+	private static final float PENDING = HeavyDutyInteractiveWidget.LOAD_STATE_PENDING;
+	private static final float COMPLETED = HeavyDutyInteractiveWidget.LOAD_STATE_COMPLETED;
+	private static final float FAILED = HeavyDutyInteractiveWidget.LOAD_STATE_FAILED;
+	private static final float INCOMPLETED = HeavyDutyInteractiveWidget.LOAD_STATE_INCOMPLETED;
+
+	private HeavyDutyInteractiveWidget widget;
+
+	private HeavyDutyLoadState state;
+
+	@Before
+	public void setUp() {
+		widget = new TestWidget();
+		state = new HeavyDutyLoadState(widget, PENDING);
+	}
+
+	@Test
+	public void startsLoadFromIdleStates() {
+		for (float from : new float[] { PENDING, INCOMPLETED, FAILED }) {
+			assertTrue(HeavyDutyLoadState.isLegal(from, 0.0f, false));
+			assertTrue(HeavyDutyLoadState.isLegal(from, -1.0f, false)); // Indeterminant
+		}
+		assertFalse(HeavyDutyLoadState.isLegal(COMPLETED, 0.0f, false));
+	}
+
+	@Test
+	public void finishesOnlyWhileLoading() {
+		for (float to : new float[] { COMPLETED, FAILED, INCOMPLETED }) {
+			assertTrue(HeavyDutyLoadState.isLegal(0.5f, to, false));
+			assertTrue(HeavyDutyLoadState.isLegal(-1.0f, to, false));
+			assertFalse(HeavyDutyLoadState.isLegal(PENDING, to, false));
+			assertFalse(HeavyDutyLoadState.isLegal(COMPLETED, to, false));
+		}
+		assertFalse(HeavyDutyLoadState.isLegal(0.5f, PENDING, false));
+	}
+
+	@Test
+	public void expiresFromAnyStateToPendingOnly() {
+		for (float from : new float[] { PENDING, 0.5f, COMPLETED, FAILED, INCOMPLETED }) {
+			assertTrue(HeavyDutyLoadState.isLegal(from, PENDING, true));
+			assertFalse(HeavyDutyLoadState.isLegal(from, 0.0f, true));
+			assertFalse(HeavyDutyLoadState.isLegal(from, COMPLETED, true));
+		}
+	}
+
+	@Test
+	public void transitionsThroughALoad() {
+		assertTrue(state.transition(0.0f, false));
+		assertTrue(state.transition(0.5f, false));
+		assertTrue(state.transition(COMPLETED, false));
+		assertEquals(COMPLETED, state.get(), 0.0);
+		assertFalse(state.isExpired());
+
+		assertTrue(state.transition(PENDING, true));
+		assertEquals(PENDING, state.get(), 0.0);
+		assertTrue(state.isExpired());
+
+		assertTrue(state.transition(0.0f, false)); // Reloading clears the expired flag
+		assertFalse(state.isExpired());
+	}
+
+	@Test
+	public void rejectsIllegalTransitionWithoutChangingState() {
+		assertFalse(state.transition(COMPLETED, false));
+		assertEquals(PENDING, state.get(), 0.0);
+
+		final List<Float> seen = new ArrayList<Float>();
+		state.addListener(new LoadStateListener() {
+			@Override
+			public void loadStateChanged(HeavyDutyInteractiveWidget w, float oldState, float newState, boolean expired) {
+				seen.add(newState);
+			}
+		});
+
+		assertFalse(state.transition(FAILED, false));
+		assertTrue(seen.isEmpty());
+	}
+
+	@Test
+	public void notifiesListeners() {
+		final List<String> seen = new ArrayList<String>();
+		state.addListener(new LoadStateListener() {
+			@Override
+			public void loadStateChanged(HeavyDutyInteractiveWidget w, float oldState, float newState, boolean expired) {
+				assertTrue(w == widget);
+				seen.add(oldState + ">" + newState + (expired ? " expired" : ""));
+			}
+		});
+
+		state.transition(0.0f, false);
+		state.transition(FAILED, false);
+		state.transition(PENDING, true);
+
+		assertEquals(3, seen.size());
+		assertEquals(PENDING + ">0.0", seen.get(0));
+		assertEquals("0.0>" + FAILED, seen.get(1));
+		assertEquals(FAILED + ">" + PENDING + " expired", seen.get(2));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void rejectsNullListener() {
+		state.addListener(null);
+	}
+
+	/**
+	 * A heavy duty widget that is never loaded - only its state is used.
+	 */
+	static final class TestWidget extends HeavyDutyInteractiveWidget {
+
+		TestWidget() {
+			super(createSource(), new JPanel(), -1, -1, -1, -1, 1, true);
+		}
+
+		private static Text createSource() {
+			Frame frame = new Frame();
+			Text source = new Text(frame.getNextItemID(), "@iw: " + TestWidget.class.getName());
+			source.setParent(frame);
+			return source;
+		}
+
+		@Override
+		protected String[] getArgs() {
+			return null;
+		}
+
+		@Override
+		protected float loadWidgetData() {
+			return LOAD_STATE_COMPLETED;
+		}
+
+		@Override
+		protected void saveWidgetData() {
+		}
+
+		@Override
+		protected void unloadWidgetData() {
+		}
+
+		@Override
+		protected void tempUnloadWidgetData() {
+		}
+
+		@Override
+		public int getLoadDelayTime() {
+			return 0;
+		}
+
+		@Override
+		public boolean doesNeedSaving() {
+			return false;
+		}
+
+		@Override
+		public String getSaveName() {
+			return "Test widget";
+		}
+	}
+
+}
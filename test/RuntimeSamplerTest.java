@@ -0,0 +1,192 @@
+package org.expeditee.items.widgets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RuntimeSamplerTest {
+
+	private static final int METRIC_COUNT = RuntimeSampler.Metric.values().length;
+
+	private RuntimeSampler sampler;
+
+	@Before
+	public void setUp() {
+		sampler = new RuntimeSampler();
+	}
+
+	/**
+	 * Publishes samples whose every metric is the samples index.
+	 */
+	private void publish(long from, long to) {
+		long[] values = new long[METRIC_COUNT];
+		for (long i = from; i < to; i++) {
+			Arrays.fill(values, i);
+			sampler.publish(values, i);
+		}
+	}
+
+	private static void assertConsecutive(long[] dest, int n, long first) {
+		for (int i = 0; i < n; i++) {
+			assertEquals(first + i, dest[i]);
+		}
+	}
+
+	@Test
+	public void copiesNothingBeforeSampling() {
+		assertEquals(0, sampler.copyHistory(RuntimeSampler.Metric.HEAP_USED, new long[16]));
+		assertEquals(0, sampler.getLatest(RuntimeSampler.Metric.HEAP_USED));
+	}
+
+	@Test
+	public void copiesPartialHistoryOldestFirst() {
+		publish(0, 5);
+
+		long[] dest = new long[16];
+		int n = sampler.copyHistory(RuntimeSampler.Metric.GC_COUNT, dest);
+
+		assertEquals(5, n);
+		assertConsecutive(dest, n, 0);
+		assertEquals(4, sampler.getLatest(RuntimeSampler.Metric.GC_COUNT));
+		assertEquals(4, sampler.getLatestTime());
+	}
+
+	@Test
+	public void copiesMostRecentIntoShortDest() {
+		publish(0, 100);
+
+		long[] dest = new long[10];
+		int n = sampler.copyHistory(RuntimeSampler.Metric.HEAP_USED, dest);
+
+		assertEquals(10, n);
+		assertConsecutive(dest, n, 90);
+	}
+
+	@Test
+	public void copiesAcrossWrapAround() {
+		long count = 2L * RuntimeSampler.HISTORY_SIZE + 37;
+		publish(0, count);
+
+		long[] dest = new long[2 * RuntimeSampler.HISTORY_SIZE];
+		int n = sampler.copyHistory(RuntimeSampler.Metric.THREAD_COUNT, dest);
+
+		assertEquals(RuntimeSampler.HISTORY_SIZE, n);
+		assertConsecutive(dest, n, count - n);
+	}
+
+	@Test
+	public void neverCopiesTornHistory() throws InterruptedException {
+		publish(0, RuntimeSampler.HISTORY_SIZE);
+
+		final AtomicBoolean isDone = new AtomicBoolean(false);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				long[] values = new long[METRIC_COUNT];
+				for (long i = RuntimeSampler.HISTORY_SIZE; !isDone.get(); i++) {
+					Arrays.fill(values, i);
+					sampler.publish(values, i);
+					// Far faster than the sampler, but leaves room to copy between samples
+					LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(20));
+				}
+			}
+		};
+		writer.start();
+
+		try {
+			long[] dest = new long[RuntimeSampler.HISTORY_SIZE];
+			for (int copy = 0; copy < 2000; copy++) {
+				int n = sampler.copyHistory(RuntimeSampler.Metric.HEAP_COMMITTED, dest);
+				assertEquals(RuntimeSampler.HISTORY_SIZE, n);
+				for (int i = 1; i < n; i++) {
+					assertTrue("Torn copy at " + i + ": " + dest[i - 1] + " then " + dest[i],
+							dest[i] == dest[i - 1] + 1);
+				}
+			}
+		} finally {
+			isDone.set(true);
+			writer.join();
+		}
+	}
+
+	private static final RuntimeSampler.Metric[] CHARTED = {
+		RuntimeSampler.Metric.HEAP_USED,
+		RuntimeSampler.Metric.HEAP_COMMITTED,
+		RuntimeSampler.Metric.GC_COUNT
+	};
+
+	/** How far apart the metrics of a sample are. */
+	private static final long METRIC_OFFSET = 1000000000L;
+
+	/**
+	 * Publishes a sample whose metrics are its index - each offset by their ordinal.
+	 */
+	private void publishOffset(long[] values, long i) {
+		for (int m = 0; m < values.length; m++) {
+			values[m] = i + m * METRIC_OFFSET;
+		}
+		sampler.publish(values, i);
+	}
+
+	private static void assertAligned(long[][] dest, int n) {
+		for (int m = 1; m < CHARTED.length; m++) {
+			long offset = (CHARTED[m].ordinal() - CHARTED[0].ordinal()) * METRIC_OFFSET;
+			for (int i = 0; i < n; i++) {
+				assertEquals(dest[0][i] + offset, dest[m][i]);
+			}
+		}
+	}
+
+	@Test
+	public void copiesMetricsFromTheSameSamples() {
+		long[] values = new long[METRIC_COUNT];
+		for (long i = 0; i < 100; i++) publishOffset(values, i);
+
+		// Limited by the shortest
+		long[][] dest = { new long[20], new long[10], new long[30] };
+		int n = sampler.copyHistory(CHARTED, dest);
+
+		assertEquals(10, n);
+		assertConsecutive(dest[0], n, 90);
+		assertAligned(dest, n);
+	}
+
+	@Test
+	public void neverCopiesMisalignedMetrics() throws InterruptedException {
+		final long[] initial = new long[METRIC_COUNT];
+		for (long i = 0; i < RuntimeSampler.HISTORY_SIZE; i++) publishOffset(initial, i);
+
+		final AtomicBoolean isDone = new AtomicBoolean(false);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				long[] values = new long[METRIC_COUNT];
+				for (long i = RuntimeSampler.HISTORY_SIZE; !isDone.get(); i++) {
+					publishOffset(values, i);
+					LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(20));
+				}
+			}
+		};
+		writer.start();
+
+		try {
+			long[][] dest = new long[CHARTED.length][RuntimeSampler.HISTORY_SIZE];
+			for (int copy = 0; copy < 2000; copy++) {
+				int n = sampler.copyHistory(CHARTED, dest);
+				assertEquals(RuntimeSampler.HISTORY_SIZE, n);
+				assertAligned(dest, n);
+			}
+		} finally {
+			isDone.set(true);
+			writer.join();
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.expeditee.items.widgets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SharedLoadRegistryTest {
+
+	private static final long TIMEOUT_SECONDS = 5;
+
+	private final SharedLoadRegistry registry = SharedLoadRegistry.getInstance();
+
+	/**
+	 * A loader that blocks until released - counting how often it runs.
+	 */
+	private static final class BlockingLoader implements SharedLoadRegistry.Loader<String> {
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+
+		@Override
+		public String load() throws Exception {
+			loads.incrementAndGet();
+			started.countDown();
+			release.await();
+			return "payload";
+		}
+	}
+
+	private CompletableFuture<SharedLoadRegistry.Entry> acquireAsync(final Object key,
+			final SharedLoadRegistry.Loader<?> loader, final LoadCancellationToken token) {
+		final CompletableFuture<SharedLoadRegistry.Entry> result = new CompletableFuture<SharedLoadRegistry.Entry>();
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result.complete(registry.acquire(key, loader, token));
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		return result;
+	}
+
+	@Test
+	public void sharesOneLoad() throws Exception {
+		Object key = new Object();
+		BlockingLoader loader = new BlockingLoader();
+
+		CompletableFuture<SharedLoadRegistry.Entry> first = acquireAsync(key, loader, new LoadCancellationToken());
+		assertTrue(loader.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		CompletableFuture<SharedLoadRegistry.Entry> second = acquireAsync(key, loader, new LoadCancellationToken());
+
+		loader.release.countDown();
+		SharedLoadRegistry.Entry a = first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		SharedLoadRegistry.Entry b = second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+		assertSame(a, b);
+		assertEquals("payload", a.getPayload());
+		assertEquals(1, loader.loads.get());
+
+		registry.release(a);
+		registry.release(b);
+	}
+
+	@Test
+	public void waiterStopsWaitingWhenCancelled() throws Exception {
+		Object key = new Object();
+		BlockingLoader loader = new BlockingLoader();
+
+		CompletableFuture<SharedLoadRegistry.Entry> first = acquireAsync(key, loader, new LoadCancellationToken());
+		assertTrue(loader.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		LoadCancellationToken waiterToken = new LoadCancellationToken();
+		CompletableFuture<SharedLoadRegistry.Entry> waiter = acquireAsync(key, loader, waiterToken);
+		Thread.sleep(50); // Let it start waiting
+
+		waiterToken.cancel(LoadCancellationToken.Reason.Navigation);
+		try {
+			waiter.get(TIMEOUT_SECONDS, TimeUnit.SECONDS); // Still loading: must not wait for it
+			fail("Cancelled waiter acquired the resource");
+		} catch (CancellationException e) { /* Expected */
+		}
+
+		loader.release.countDown();
+		registry.release(first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(0, registry.getSharedCount());
+	}
+
+	@Test
+	public void waiterTakesOverCancelledLoad() throws Exception {
+		Object key = new Object();
+
+		final LoadCancellationToken loaderToken = new LoadCancellationToken();
+		final CountDownLatch started = new CountDownLatch(1);
+		SharedLoadRegistry.Loader<String> cancelledLoader = new SharedLoadRegistry.Loader<String>() {
+			@Override
+			public String load() throws Exception {
+				started.countDown();
+				while (!loaderToken.isCancelled()) Thread.sleep(1);
+				throw new InterruptedException("cancelled");
+			}
+		};
+
+		CompletableFuture<SharedLoadRegistry.Entry> first = acquireAsync(key, cancelledLoader, loaderToken);
+		assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		BlockingLoader takeOver = new BlockingLoader();
+		takeOver.release.countDown();
+		CompletableFuture<SharedLoadRegistry.Entry> second = acquireAsync(key, takeOver, new LoadCancellationToken());
+
+		loaderToken.cancel(LoadCancellationToken.Reason.Navigation);
+
+		try {
+			first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			fail("Cancelled loader acquired the resource");
+		} catch (ExecutionException e) { /* Expected */ }
+
+		SharedLoadRegistry.Entry entry = second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertEquals("payload", entry.getPayload());
+		registry.release(entry);
+	}
+
+}
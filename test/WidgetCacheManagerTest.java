@@ -0,0 +1,51 @@
+package org.expeditee.items.widgets;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class WidgetCacheManagerTest {
+
+	private static MemoryUsage usage(long used, long max) {
+		return new MemoryUsage(0, used, Math.max(used, 0), max);
+	}
+
+	@Test
+	public void noExcessUnderBudget() {
+		assertEquals(0, WidgetCacheManager.getHeapExcess(Arrays.asList(usage(700, 1000)), 0.75));
+		assertEquals(0, WidgetCacheManager.getHeapExcess(Arrays.asList(usage(750, 1000)), 0.75));
+		assertEquals(0, WidgetCacheManager.getHeapExcess(Collections.<MemoryUsage>emptyList(), 0.75));
+	}
+
+	@Test
+	public void excessOverBudget() {
+		assertEquals(150, WidgetCacheManager.getHeapExcess(Arrays.asList(usage(900, 1000)), 0.75));
+	}
+
+	@Test
+	public void poolsUnderBudgetDoNotOffsetPoolsOver() {
+		assertEquals(150, WidgetCacheManager.getHeapExcess(
+				Arrays.asList(usage(900, 1000), usage(0, 1000)), 0.75));
+		assertEquals(500, WidgetCacheManager.getHeapExcess(
+				Arrays.asList(usage(900, 1000), usage(100, 1000), usage(200, 200)), 0.5));
+	}
+
+	@Test
+	public void ignoresPoolsWithoutMaximum() {
+		assertEquals(0, WidgetCacheManager.getHeapExcess(Arrays.asList(usage(900, -1)), 0.75));
+	}
+
+	@Test
+	public void neighbourhoodIsWithinCacheDepth() {
+		assertEquals(0, WidgetCacheManager.getNeighbourhoodHops(1));
+		assertEquals(1, WidgetCacheManager.getNeighbourhoodHops(2));
+		assertEquals(2, WidgetCacheManager.getNeighbourhoodHops(3));
+		assertEquals(2, WidgetCacheManager.getNeighbourhoodHops(50));
+		assertEquals(0, WidgetCacheManager.getNeighbourhoodHops(0));
+	}
+
+}
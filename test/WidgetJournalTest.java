@@ -0,0 +1,215 @@
+package org.expeditee.items.widgets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WidgetJournalTest {
+
+	private File dir;
+
+	private File base;
+
+	/** The state of the widget - the deltas applied in order. */
+	private List<String> state;
+
+	private WidgetJournal journal;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("journal").toFile();
+		base = new File(dir, "widget");
+		state = new ArrayList<String>();
+		journal = newJournal();
+	}
+
+	@After
+	public void tearDown() {
+		journal.delete();
+		dir.delete();
+	}
+
+	private WidgetJournal newJournal() {
+		return new WidgetJournal(base, new WidgetJournal.Snapshotter() {
+			@Override
+			public void writeSnapshot(OutputStream out) throws IOException {
+				DataOutputStream data = new DataOutputStream(out);
+				data.writeInt(state.size());
+				for (String s : state) data.writeUTF(s);
+				data.flush();
+			}
+		});
+	}
+
+	private void append(String delta) throws IOException {
+		state.add(delta);
+		journal.append(delta.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return
+	 * 		The state rebuilt from the journal files - by a new journal, as after a restart.
+	 */
+	private List<String> replay() throws IOException {
+		journal.close();
+		journal = newJournal();
+
+		final List<String> replayed = new ArrayList<String>();
+		journal.replay(new WidgetJournal.Replayer() {
+			@Override
+			public void replaySnapshot(InputStream in) throws IOException {
+				DataInputStream data = new DataInputStream(in);
+				for (int n = data.readInt(); n > 0; n--) replayed.add(data.readUTF());
+			}
+
+			@Override
+			public void replayDelta(ByteBuffer delta) throws IOException {
+				byte[] bytes = new byte[delta.remaining()];
+				delta.get(bytes);
+				replayed.add(new String(bytes, StandardCharsets.UTF_8));
+			}
+		});
+		return replayed;
+	}
+
+	private File getJournalFile() {
+		return new File(base.getPath() + ".journal");
+	}
+
+	@Test
+	public void replaysCommittedDeltasInOrder() throws IOException {
+		append("a");
+		append("b");
+		append("c");
+		journal.commit();
+
+		assertEquals(state, replay());
+	}
+
+	@Test
+	public void replaysSnapshotThenLaterDeltas() throws IOException {
+		append("a");
+		append("b");
+		journal.compact();
+		assertEquals(0, journal.getJournalSize());
+
+		append("c");
+		journal.commit();
+
+		assertEquals(state, replay());
+	}
+
+	@Test
+	public void keepsSequenceAcrossReopen() throws IOException {
+		append("a");
+		journal.compact();
+		append("b");
+		journal.commit();
+		assertEquals(state, replay());
+
+		append("c"); // Appended by the re-opened journal
+		journal.commit();
+		assertEquals(state, replay());
+	}
+
+	@Test
+	public void dropsTornRecord() throws IOException {
+		append("first");
+		append("second");
+		journal.commit();
+		journal.close();
+
+		// A crash part way through writing the second record
+		File file = getJournalFile();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 3);
+		} finally {
+			raf.close();
+		}
+		state.remove("second");
+
+		assertEquals(state, replay());
+
+		// The torn tail is truncated, so later deltas follow the last valid one
+		append("third");
+		journal.commit();
+		assertEquals(state, replay());
+	}
+
+	@Test
+	public void dropsCorruptRecordAndAfter() throws IOException {
+		append("first");
+		append("second");
+		append("third");
+		journal.commit();
+		journal.close();
+
+		// Flip a byte in the payload of the second record: header (16) + "first" (5) + header (16)
+		File file = getJournalFile();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(16 + 5 + 16);
+			int b = raf.read();
+			raf.seek(16 + 5 + 16);
+			raf.write(b ^ 0xFF);
+		} finally {
+			raf.close();
+		}
+
+		List<String> replayed = replay();
+		assertEquals(1, replayed.size());
+		assertEquals("first", replayed.get(0));
+	}
+
+	@Test
+	public void skipsDeltasAlreadyInSnapshot() throws IOException {
+		append("a");
+		append("b");
+		journal.commit();
+		byte[] beforeCompaction = Files.readAllBytes(getJournalFile().toPath());
+
+		journal.compact();
+		journal.close();
+
+		// A crash after the snapshot was replaced but before the journal was emptied
+		Files.write(getJournalFile().toPath(), beforeCompaction);
+
+		assertEquals(state, replay());
+	}
+
+	@Test
+	public void needsCompactionPastThreshold() throws IOException {
+		journal.setCompactionThreshold(40);
+		append("0123456789");
+		assertFalse(journal.needsCompaction());
+		append("0123456789");
+		assertTrue(journal.needsCompaction());
+
+		journal.compact();
+		assertFalse(journal.needsCompaction());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void requiresSnapshotter() {
+		new WidgetJournal(base, null);
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.expeditee.items.widgets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WidgetPropertyCacheTest {
+
+	private enum Mode { FAST, SLOW }
+
+	private List<String> data;
+
+	private WidgetPropertyCache cache;
+
+	@Before
+	public void setUp() {
+		data = new ArrayList<String>(Arrays.asList("width:42", "on:yes", "mode:slow", "items: a, ,b "));
+		cache = new WidgetPropertyCache(null, new WidgetPropertyCache.DataSource() {
+			@Override
+			public List<String> getData() {
+				return data;
+			}
+		});
+	}
+
+	@Test
+	public void parsesTypes() {
+		assertEquals(42, cache.get("width:", Integer.class));
+		assertEquals(42L, cache.get("width:", Long.class));
+		assertEquals(Boolean.TRUE, cache.get("on:", Boolean.class));
+		assertEquals(Mode.SLOW, cache.get("mode:", Mode.class));
+		assertEquals(Arrays.asList("a", "b"), cache.get("items:", List.class));
+	}
+
+	@Test
+	public void missingAndInvalidAreNull() {
+		assertNull(cache.get("height:", Integer.class));
+		assertNull(cache.get("mode:", Integer.class));
+		assertNull(cache.get("on:", Mode.class));
+	}
+
+	@Test
+	public void cachesEachTypeRead() {
+		Object asList = cache.get("width:", List.class);
+		Object asInt = cache.get("width:", Integer.class);
+
+		// Reading as another type in between does not re-parse either
+		assertSame(asList, cache.get("width:", List.class));
+		assertSame(asInt, cache.get("width:", Integer.class));
+	}
+
+	@Test
+	public void detectsReplacedData() {
+		assertEquals(42, cache.get("width:", Integer.class));
+
+		data = new ArrayList<String>(Arrays.asList("width:7"));
+
+		assertEquals(7, cache.get("width:", Integer.class));
+	}
+
+	@Test
+	public void detectsAddedLines() {
+		assertNull(cache.get("height:", Integer.class));
+
+		data.add("height:9");
+
+		assertEquals(9, cache.get("height:", Integer.class));
+	}
+
+	@Test
+	public void dataChangedCatchesInPlaceEdits() {
+		assertEquals(42, cache.get("width:", Integer.class));
+
+		data.set(0, "width:43");
+		cache.dataChanged();
+
+		assertEquals(43, cache.get("width:", Integer.class));
+	}
+
+	@Test
+	public void listenersRaisedOnSwingThread() throws Exception {
+		final List<String> raised = new ArrayList<String>();
+
+		cache.addListener("width:", new WidgetPropertyListener() {
+			@Override
+			public void propertyChanged(InteractiveWidget widget, String tag, String oldValue, String newValue) {
+				raised.add(SwingUtilities.isEventDispatchThread() + " " + oldValue + ">" + newValue);
+			}
+		});
+
+		// Hold the swing thread so that the read can be checked before listeners are raised
+		final CountDownLatch isHeld = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				isHeld.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		isHeld.await();
+
+		try {
+			data = new ArrayList<String>(Arrays.asList("width:1"));
+			cache.get("width:", Integer.class);
+
+			// Not from within the read
+			assertEquals(0, raised.size());
+		} finally {
+			release.countDown();
+		}
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+
+		assertEquals(Arrays.asList("true 42>1"), raised);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyTag() {
+		cache.get("", Integer.class);
+	}
+
+}